@@ -20,9 +20,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -48,10 +51,10 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.model.fileset.FileSet;
 import org.codehaus.plexus.util.DirectoryScanner;
-import org.codehaus.plexus.util.FileUtils;
 import org.ops4j.pax.construct.util.BndUtils;
 import org.ops4j.pax.construct.util.BndUtils.Bnd;
 import org.ops4j.pax.construct.util.DirUtils;
+import org.ops4j.pax.construct.util.JarFilePool;
 import org.ops4j.pax.construct.util.PomUtils;
 import org.ops4j.pax.construct.util.PomUtils.Pom;
 
@@ -70,6 +73,16 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
      */
     public static final String PAX_CONSTRUCT_GROUP_ID = "org.ops4j.pax.construct";
 
+    /**
+     * Plugin context key for archetype jars already resolved in this session, keyed by groupId:artifactId:version
+     */
+    private static final String RESOLVED_ARCHETYPES = "pax.resolved.archetypes";
+
+    /**
+     * Plugin context key for archetype versions already selected in this session, keyed by groupId:artifactId
+     */
+    private static final String SELECTED_VERSIONS = "pax.selected.versions";
+
     /**
      * Component factory for Maven archetypes.
      * 
@@ -202,10 +215,15 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
     private File m_pomFile;
 
     /**
-     * Excludes any existing files, includes any discarded files
+     * Includes any discarded files
      */
     private FileSet m_tempFiles;
 
+    /**
+     * Snapshot of files that existed before the new project was generated (these are never discarded)
+     */
+    private Set m_existingFiles;
+
     /**
      * Additional archetypes that supply customized content
      */
@@ -309,6 +327,8 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
     }
 
     /**
+     * Mark files for discarding once the project is generated, should only be called from {@link #markTempFiles()}
+     * 
      * @param pathExpression Ant-style path expression, can include wildcards
      */
     protected final void addTempFiles( String pathExpression )
@@ -322,27 +342,34 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
     public final void execute()
         throws MojoExecutionException
     {
-        updateFields();
-        createModuleTree();
-
-        /*
-         * support repeated creation of projects
-         */
-        do
+        try
         {
-            scheduleCustomArchetypes();
-            updateExtensionFields();
+            updateFields();
+            createModuleTree();
 
-            prepareTarget();
-            generateArchetype();
-            cacheSettings();
+            /*
+             * support repeated creation of projects
+             */
+            do
+            {
+                scheduleCustomArchetypes();
+                updateExtensionFields();
 
-            runCustomArchetypes();
+                prepareTarget();
+                generateArchetype();
+                cacheSettings();
 
-            postProcess();
-            cleanUp();
+                runCustomArchetypes();
 
-        } while( createMoreArtifacts() );
+                postProcess();
+                cleanUp();
+
+            } while( createMoreArtifacts() );
+        }
+        finally
+        {
+            JarFilePool.closeAll();
+        }
     }
 
     /**
@@ -423,6 +450,14 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
      */
     protected abstract String getParentId();
 
+    /**
+     * Gives sub-classes the chance to mark temporary or unnecessary files before the new project is generated
+     */
+    protected void markTempFiles()
+    {
+        // for sub-classes to override if they need to
+    }
+
     /**
      * Gives sub-classes the chance to cache the original files before custom archetypes run
      * 
@@ -495,6 +530,35 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
      * @return compatible archetype version
      */
     private String getArchetypeVersion( String groupId, String artifactId )
+    {
+        String key = groupId + ':' + artifactId;
+        Map selectedVersions = getSessionCache( SELECTED_VERSIONS );
+        synchronized( selectedVersions )
+        {
+            String version = (String) selectedVersions.get( key );
+            if( null == version )
+            {
+                // avoid repeating metadata lookups when generating many projects
+                version = selectArchetypeVersion( groupId, artifactId );
+                if( null == version )
+                {
+                    // don't remember the fallback, so the next project tries the lookup again
+                    return pluginVersion;
+                }
+                selectedVersions.put( key, version );
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Search local and remote metadata for the latest archetype that's compatible with this plugin
+     * 
+     * @param groupId archetype group id
+     * @param artifactId archetype artifact id
+     * @return compatible archetype version, null if the lookup failed
+     */
+    private String selectArchetypeVersion( String groupId, String artifactId )
     {
         // special case when plugin is a snapshot - use the local archetype snapshot, if available
         Artifact artifact = m_factory.createBuildArtifact( groupId, artifactId, pluginVersion, "jar" );
@@ -513,7 +577,7 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
         }
         catch( MojoExecutionException e )
         {
-            return pluginVersion;
+            return null;
         }
     }
 
@@ -562,10 +626,13 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
         // reset trashcan
         m_tempFiles = new FileSet();
         m_tempFiles.setDirectory( pomDirectory.getAbsolutePath() );
+        m_existingFiles = new HashSet();
+
+        markTempFiles();
 
         if( pomDirectory.exists() )
         {
-            preserveExistingFiles( pomDirectory );
+            preserveExistingFiles();
         }
         else
         {
@@ -590,25 +657,16 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
     }
 
     /**
-     * @param baseDir project base directory
-     * @throws MojoExecutionException
+     * Snapshot existing files that match the temporary file patterns, so we don't accidentally trash them later
      */
-    private void preserveExistingFiles( File baseDir )
-        throws MojoExecutionException
+    private void preserveExistingFiles()
     {
-        try
+        // only files that could be discarded need protecting, so there's no need to walk the whole project
+        String[] existingFiles = scanTempFiles().getIncludedFiles();
+        for( int i = 0; i < existingFiles.length; i++ )
         {
-            // exclude existing files, so we don't accidentally trash them later
-            List excludes = FileUtils.getFileNames( baseDir, null, null, false );
-            for( Iterator i = excludes.iterator(); i.hasNext(); )
-            {
-                getLog().debug( "Preserving " + i.next() );
-            }
-            m_tempFiles.setExcludes( excludes );
-        }
-        catch( IOException e )
-        {
-            throw new MojoExecutionException( "I/O error while protecting existing files from deletion", e );
+            getLog().debug( "Preserving " + existingFiles[i] );
+            m_existingFiles.add( existingFiles[i] );
         }
     }
 
@@ -811,47 +869,67 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
     }
 
     /**
-     * @return set of filenames that will be left at the end of this archetype cycle
+     * @param includes Ant-style path expressions selecting the files of interest
+     * @return set of selected filenames that will be left at the end of this archetype cycle
      */
-    protected final Set getFinalFilenames()
+    protected final Set getFinalFilenames( String[] includes )
     {
-        Set finalFiles = new HashSet();
-
         DirectoryScanner scanner = new DirectoryScanner();
         scanner.setBasedir( m_tempFiles.getDirectory() );
         scanner.setFollowSymlinks( false );
 
-        scanner.addDefaultExcludes();
-        scanner.setExcludes( m_tempFiles.getExcludesArray() );
-        scanner.setIncludes( m_tempFiles.getIncludesArray() );
+        scanner.setIncludes( includes );
 
         scanner.scan();
 
-        finalFiles.addAll( Arrays.asList( scanner.getNotIncludedFiles() ) );
-        finalFiles.addAll( Arrays.asList( scanner.getExcludedFiles() ) );
+        Set finalFiles = new HashSet( Arrays.asList( scanner.getIncludedFiles() ) );
+
+        // existing files are kept even when they match a discarded path
+        String[] tempFiles = scanTempFiles().getIncludedFiles();
+        for( int i = 0; i < tempFiles.length; i++ )
+        {
+            if( !m_existingFiles.contains( tempFiles[i] ) )
+            {
+                finalFiles.remove( tempFiles[i] );
+            }
+        }
 
         return finalFiles;
     }
 
     /**
-     * Clean up any temporary or unnecessary files, including empty directories
+     * @return scanner holding the files and directories that match the temporary file patterns
      */
-    private void cleanUp()
+    private DirectoryScanner scanTempFiles()
     {
         DirectoryScanner scanner = new DirectoryScanner();
         scanner.setBasedir( m_tempFiles.getDirectory() );
         scanner.setFollowSymlinks( false );
 
         scanner.addDefaultExcludes();
-        scanner.setExcludes( m_tempFiles.getExcludesArray() );
         scanner.setIncludes( m_tempFiles.getIncludesArray() );
 
+        // only descends into directories that could hold matching files
         scanner.scan();
 
+        return scanner;
+    }
+
+    /**
+     * Clean up any temporary or unnecessary files, including empty directories
+     */
+    private void cleanUp()
+    {
+        DirectoryScanner scanner = scanTempFiles();
+
         String[] discardedFiles = scanner.getIncludedFiles();
         for( int i = 0; i < discardedFiles.length; i++ )
         {
             String filename = discardedFiles[i];
+            if( m_existingFiles.contains( filename ) )
+            {
+                continue;
+            }
             getLog().debug( "Discarding " + filename );
             new File( scanner.getBasedir(), filename ).delete();
         }
@@ -904,7 +982,14 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
             String artifactId = getArchetypeProperty( "archetypeArtifactId" );
             String version = getArchetypeProperty( "archetypeVersion" );
 
-            m_archetype.createArchetype( groupId, artifactId, version, m_localRepo, m_remoteRepos,
+            List remoteRepos = m_remoteRepos;
+            if( null != resolveArchetype( groupId, artifactId, version ) )
+            {
+                // already resolved against the remote repositories in this session, so don't ask them again
+                remoteRepos = Collections.EMPTY_LIST;
+            }
+
+            m_archetype.createArchetype( groupId, artifactId, version, m_localRepo, remoteRepos,
                 m_archetypeProperties );
         }
         catch( ArchetypeNotFoundException e )
@@ -921,6 +1006,62 @@ public abstract class AbstractPaxArchetypeMojo extends AbstractMojo
         }
     }
 
+    /**
+     * Resolve the archetype jar once per session, so repeated generation doesn't keep checking remote repositories
+     * 
+     * @param groupId archetype group id
+     * @param artifactId archetype artifact id
+     * @param version archetype version
+     * @return the resolved archetype jar, null if it couldn't be resolved
+     */
+    private File resolveArchetype( String groupId, String artifactId, String version )
+    {
+        String key = groupId + ':' + artifactId + ':' + version;
+        Map resolvedArchetypes = getSessionCache( RESOLVED_ARCHETYPES );
+        synchronized( resolvedArchetypes )
+        {
+            File jar = (File) resolvedArchetypes.get( key );
+            if( null != jar && jar.exists() )
+            {
+                return jar;
+            }
+
+            Artifact artifact = m_factory.createArtifact( groupId, artifactId, version, Artifact.SCOPE_RUNTIME, "jar" );
+            if( PomUtils.downloadFile( artifact, m_resolver, m_remoteRepos, m_localRepo ) )
+            {
+                getLog().debug( "Caching resolved archetype " + key );
+                resolvedArchetypes.put( key, artifact.getFile() );
+                return artifact.getFile();
+            }
+
+            // let the archetype component report any problem
+            resolvedArchetypes.remove( key );
+            return null;
+        }
+    }
+
+    /**
+     * Caches live in the plugin context rather than static fields, so a resident build process (or IDE) that runs
+     * several sessions still picks up new releases and snapshots in each one
+     * 
+     * @param name plugin context key
+     * @return cache for the current build session
+     */
+    private Map getSessionCache( String name )
+    {
+        Map context = getPluginContext();
+        synchronized( context )
+        {
+            Map cache = (Map) context.get( name );
+            if( null == cache )
+            {
+                cache = new HashMap();
+                context.put( name, cache );
+            }
+            return cache;
+        }
+    }
+
     /**
      * @param id repository id
      * @param url repository url
@@ -19,6 +19,7 @@ package org.ops4j.pax.construct.archetype;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Properties;
 import java.util.Set;
 
 import org.apache.maven.artifact.Artifact;
@@ -71,10 +72,9 @@ public class OSGiBundleArchetypeMojo extends AbstractPaxArchetypeMojo
     private String bundleGroupId;
 
     /**
-     * The key Java package contained inside the bundle.
+     * The key Java package contained inside the bundle (required, but create-bundles takes it from the bundle list).
      * 
      * @parameter expression="${package}"
-     * @required
      */
     private String packageName;
 
@@ -139,6 +139,11 @@ public class OSGiBundleArchetypeMojo extends AbstractPaxArchetypeMojo
      */
     private boolean m_haveExampleActivator;
 
+    /**
+     * Settings configured for this goal, used as defaults when applying settings for each bundle in a batch
+     */
+    private Properties m_defaultSettings;
+
     /**
      * {@inheritDoc}
      */
@@ -151,7 +156,13 @@ public class OSGiBundleArchetypeMojo extends AbstractPaxArchetypeMojo
      * {@inheritDoc}
      */
     protected void updateExtensionFields()
+        throws MojoExecutionException
     {
+        if( PomUtils.isEmpty( packageName ) )
+        {
+            throw new MojoExecutionException( "Missing package setting, use -Dpackage=..." );
+        }
+
         populateMissingFields();
 
         setMainArchetype( OSGI_BUNDLE_ARCHETYPE_ID );
@@ -210,6 +221,64 @@ public class OSGiBundleArchetypeMojo extends AbstractPaxArchetypeMojo
         }
     }
 
+    /**
+     * Replace the current bundle settings, missing settings revert to the values originally configured for this goal
+     * 
+     * @param settings bundle settings, using the same names as the goal parameters (package, bundleName, etc.)
+     */
+    protected final void applyBundleSettings( Properties settings )
+    {
+        if( null == m_defaultSettings )
+        {
+            // shared by every bundle in the batch (package and name are always bundle specific)
+            m_defaultSettings = new Properties();
+            setDefault( "bundleGroupId", bundleGroupId );
+            setDefault( "version", version );
+            setDefault( "interface", Boolean.toString( provideInterface ) );
+            setDefault( "internals", Boolean.toString( provideInternals ) );
+            setDefault( "activator", Boolean.toString( provideActivator ) );
+            setDefault( "junit", junitVersion );
+            setDefault( "spring", springVersion );
+            setDefault( "noDeps", Boolean.toString( noDependencies ) );
+        }
+
+        packageName = settings.getProperty( "package" );
+        bundleName = settings.getProperty( "bundleName" );
+
+        bundleGroupId = getSetting( settings, "bundleGroupId" );
+        version = getSetting( settings, "version" );
+        provideInterface = Boolean.valueOf( getSetting( settings, "interface" ) ).booleanValue();
+        provideInternals = Boolean.valueOf( getSetting( settings, "internals" ) ).booleanValue();
+        provideActivator = Boolean.valueOf( getSetting( settings, "activator" ) ).booleanValue();
+        junitVersion = getSetting( settings, "junit" );
+        springVersion = getSetting( settings, "spring" );
+        noDependencies = Boolean.valueOf( getSetting( settings, "noDeps" ) ).booleanValue();
+
+        m_haveExampleActivator = false;
+    }
+
+    /**
+     * @param name setting name
+     * @param value default value, may be null
+     */
+    private void setDefault( String name, String value )
+    {
+        if( null != value )
+        {
+            m_defaultSettings.setProperty( name, value );
+        }
+    }
+
+    /**
+     * @param settings bundle settings
+     * @param name setting name
+     * @return the bundle specific value, otherwise the default value
+     */
+    private String getSetting( Properties settings, String name )
+    {
+        return settings.getProperty( name, m_defaultSettings.getProperty( name ) );
+    }
+
     /**
      * Provide Velocity template with customized Bundle-SymbolicName
      * 
@@ -236,8 +305,6 @@ public class OSGiBundleArchetypeMojo extends AbstractPaxArchetypeMojo
             OSGiBundleArchetypeMojo.makeStandalone( pom, "compiled", getPluginVersion() );
         }
 
-        markBogusFiles();
-
         updatePomDependencies( pom );
         updateBndInstructions( bnd );
     }
@@ -265,9 +332,9 @@ public class OSGiBundleArchetypeMojo extends AbstractPaxArchetypeMojo
     }
 
     /**
-     * Mark any temporary or unnecessary files
+     * {@inheritDoc}
      */
-    private void markBogusFiles()
+    protected void markTempFiles()
     {
         String packagePath = packageName.replace( '.', '/' );
 
@@ -428,7 +495,10 @@ public class OSGiBundleArchetypeMojo extends AbstractPaxArchetypeMojo
         /*
          * check the source code in case we need to override the basic BND settings
          */
-        Set filenames = getFinalFilenames();
+        Set filenames = getFinalFilenames( new String[]
+        {
+            "src/main/java/**/*.java"
+        } );
         for( Iterator i = filenames.iterator(); i.hasNext(); )
         {
             String name = (String) i.next();
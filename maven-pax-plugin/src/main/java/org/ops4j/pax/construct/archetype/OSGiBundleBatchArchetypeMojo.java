@@ -0,0 +1,161 @@
+package org.ops4j.pax.construct.archetype;
+
+/*
+ * Copyright 2026 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.IOUtil;
+import org.ops4j.pax.construct.util.PomUtils;
+import org.ops4j.pax.construct.util.StreamFactory;
+
+/**
+ * Create a batch of new bundle projects inside an existing Pax-Construct OSGi project, using a single Maven session
+ * 
+ * <code><pre>
+ *   mvn pax:create-bundles -DbundleList=... [-Dversion=...] [-Djunit=...] [-DnoDeps] ...etc...
+ * </pre></code>
+ * 
+ * The bundle list has one bundle per line, using the same settings as create-bundle (lines starting with # are
+ * ignored, flags without a value are set to true, any missing settings default to the values given to this goal)
+ * 
+ * <code><pre>
+ *   package=org.example.foo
+ *   package=org.example.bar bundleName=bar version=2.0-SNAPSHOT interface=false junit
+ * </pre></code>
+ * 
+ * @goal create-bundles
+ */
+public class OSGiBundleBatchArchetypeMojo extends OSGiBundleArchetypeMojo
+{
+    /**
+     * File listing the bundles to create, one bundle per line.
+     * 
+     * @parameter expression="${bundleList}"
+     * @required
+     */
+    private File bundleList;
+
+    /**
+     * Remaining sequence of bundle settings
+     */
+    private List m_bundleSettings;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void updateExtensionFields()
+        throws MojoExecutionException
+    {
+        if( null == m_bundleSettings )
+        {
+            m_bundleSettings = readBundleList( bundleList );
+            if( m_bundleSettings.isEmpty() )
+            {
+                throw new MojoExecutionException( "No bundles listed in " + bundleList );
+            }
+        }
+
+        applyBundleSettings( (Properties) m_bundleSettings.remove( 0 ) );
+
+        super.updateExtensionFields();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean createMoreArtifacts()
+    {
+        return !m_bundleSettings.isEmpty();
+    }
+
+    /**
+     * @param listFile file listing bundle settings, one bundle per line
+     * @return sequence of bundle settings
+     * @throws MojoExecutionException
+     */
+    private static List readBundleList( File listFile )
+        throws MojoExecutionException
+    {
+        List bundleSettings = new ArrayList();
+        BufferedReader reader = null;
+
+        try
+        {
+            reader = new BufferedReader( StreamFactory.newPlatformReader( listFile ) );
+
+            int lineNumber = 0;
+            for( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                lineNumber++;
+
+                line = line.trim();
+                if( line.length() > 0 && !line.startsWith( "#" ) )
+                {
+                    Properties settings = parseSettings( line );
+                    if( PomUtils.isEmpty( settings.getProperty( "package" ) ) )
+                    {
+                        throw new MojoExecutionException( "Missing package=... setting at line " + lineNumber + " of "
+                            + listFile );
+                    }
+                    bundleSettings.add( settings );
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "I/O error reading bundle list " + listFile, e );
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+
+        return bundleSettings;
+    }
+
+    /**
+     * @param line whitespace separated list of name=value settings
+     * @return bundle settings
+     */
+    private static Properties parseSettings( String line )
+    {
+        Properties settings = new Properties();
+
+        String[] clauses = line.split( "\\s+" );
+        for( int i = 0; i < clauses.length; i++ )
+        {
+            int split = clauses[i].indexOf( '=' );
+            if( split < 0 )
+            {
+                // simple flag
+                settings.setProperty( clauses[i], "true" );
+            }
+            else
+            {
+                settings.setProperty( clauses[i].substring( 0, split ), clauses[i].substring( split + 1 ) );
+            }
+        }
+
+        return settings;
+    }
+}
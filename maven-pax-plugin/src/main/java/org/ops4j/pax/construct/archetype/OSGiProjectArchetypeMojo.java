@@ -131,14 +131,20 @@ public class OSGiProjectArchetypeMojo extends AbstractPaxArchetypeMojo
     /**
      * {@inheritDoc}
      */
-    protected void postProcess( Pom pom, Bnd bnd )
+    protected void markTempFiles()
     {
-        // always tie the pax-plugin to a specific version (helps with reproducible builds)
-        pom.updatePluginVersion( "org.ops4j", "maven-pax-plugin", getPluginVersion() );
-
         // clear away some bogus files
         addTempFiles( "poms/imported/" );
         addTempFiles( "osgi.bnd" );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void postProcess( Pom pom, Bnd bnd )
+    {
+        // always tie the pax-plugin to a specific version (helps with reproducible builds)
+        pom.updatePluginVersion( "org.ops4j", "maven-pax-plugin", getPluginVersion() );
 
         // are there any customized POM settings that need merging?
         if( null == m_settingPoms || m_settingPoms.size() == 0 )
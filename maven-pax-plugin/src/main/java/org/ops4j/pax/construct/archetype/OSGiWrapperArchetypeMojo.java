@@ -389,7 +389,13 @@ public class OSGiWrapperArchetypeMojo extends AbstractPaxArchetypeMojo
 
         updatePomDependencies( pom );
         updateBndInstructions( bnd );
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected void markTempFiles()
+    {
         // these settings no longer needed
         addTempFiles( TEMP_SETTINGS_PATH );
     }
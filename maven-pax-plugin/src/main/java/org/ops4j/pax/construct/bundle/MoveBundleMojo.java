@@ -17,17 +17,23 @@ package org.ops4j.pax.construct.bundle;
  */
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
 import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.ops4j.pax.construct.util.DirUtils;
 import org.ops4j.pax.construct.util.PomIterator;
 import org.ops4j.pax.construct.util.PomUtils;
 import org.ops4j.pax.construct.util.PomUtils.Pom;
+import org.ops4j.pax.construct.util.TaskRunner;
 
 /**
  * Move a bundle project to a new directory, updating and creating POMs as necessary
@@ -73,6 +79,21 @@ public class MoveBundleMojo extends AbstractMojo
      */
     private boolean repair;
 
+    /**
+     * When true, leave out the build directory declared in the bundle POM if the bundle has to be copied to the new
+     * location.
+     * 
+     * @parameter expression="${noBuildOutput}"
+     */
+    private boolean noBuildOutput;
+
+    /**
+     * Number of threads used to copy files, only used when the bundle can't simply be renamed to its new location.
+     * 
+     * @parameter expression="${threads}" default-value="1"
+     */
+    private int threads;
+
     /**
      * Locate the bundle project - try name first as a directory path, then an artifactId or symbolic-name
      * 
@@ -178,13 +199,12 @@ public class MoveBundleMojo extends AbstractMojo
         {
             try
             {
-                // fallback to copy and delete on Windows...
-                FileUtils.copyDirectoryStructure( oldBundleDir, newBundleDir );
-                FileUtils.deleteDirectory( oldBundleDir );
+                // fallback to copy and delete on Windows, or when moving to another filesystem...
+                moveByCopying( bundlePom, newBundleDir );
             }
             catch( IOException e )
             {
-                throw new MojoExecutionException( "Cannot move bundle " + bundleName + " to " + targetDirectory );
+                throw new MojoExecutionException( "Cannot move bundle " + bundleName + " to " + targetDirectory, e );
             }
         }
 
@@ -193,6 +213,194 @@ public class MoveBundleMojo extends AbstractMojo
         return newModulesPom;
     }
 
+    /**
+     * Copy the bundle to a temporary folder next to its new location, then rename it into place. The original is only
+     * deleted once the copy is complete, so an interrupted move never leaves a partial bundle at the new location.
+     * 
+     * @param bundlePom current Maven POM for the bundle
+     * @param newBundleDir new location for the bundle
+     * @throws IOException
+     * @throws MojoExecutionException
+     */
+    private void moveByCopying( Pom bundlePom, File newBundleDir )
+        throws IOException,
+        MojoExecutionException
+    {
+        File oldBundleDir = bundlePom.getBasedir();
+        File tempDir = new File( newBundleDir.getParentFile(), '.' + newBundleDir.getName() + ".pax-move" );
+
+        // left behind by an earlier move that failed
+        FileUtils.deleteDirectory( tempDir );
+
+        DirectoryScanner scanner = new DirectoryScanner();
+
+        if( noBuildOutput )
+        {
+            String buildPath = getRelativeBuildPath( bundlePom );
+            if( null != buildPath )
+            {
+                scanner.setExcludes( new String[]
+                {
+                    buildPath + "**"
+                } );
+            }
+        }
+
+        // follow symbolic links like the original copy did, otherwise they'd be excluded and lost with the original
+        scanner.setFollowSymlinks( true );
+        scanner.setBasedir( oldBundleDir );
+        scanner.scan();
+
+        // create folders up front (including empty ones) so the files can be copied in any order
+        String[] dirs = scanner.getIncludedDirectories();
+        for( int i = 0; i < dirs.length; i++ )
+        {
+            new File( tempDir, dirs[i] ).mkdirs();
+        }
+
+        boolean moved = false;
+        try
+        {
+            copyFiles( oldBundleDir, tempDir, scanner.getIncludedFiles() );
+
+            if( !tempDir.renameTo( newBundleDir ) )
+            {
+                throw new IOException( "Unable to rename " + tempDir + " to " + newBundleDir );
+            }
+
+            moved = true;
+        }
+        finally
+        {
+            if( !moved )
+            {
+                // don't leave a half-finished copy in the project tree
+                FileUtils.deleteDirectory( tempDir );
+            }
+        }
+
+        FileUtils.deleteDirectory( oldBundleDir );
+    }
+
+    /**
+     * @param bundlePom Maven POM for the bundle
+     * @return build directory relative to the bundle (ending in a slash), null if it's outside the bundle or unknown
+     */
+    private String getRelativeBuildPath( Pom bundlePom )
+    {
+        String buildDirectory = bundlePom.getBuildDirectory();
+
+        // only the basedir expressions can be resolved without building the full Maven project
+        String[] basedirs =
+        {
+            "${basedir}", "${project.basedir}", "${pom.basedir}"
+        };
+        for( int i = 0; i < basedirs.length; i++ )
+        {
+            if( buildDirectory.startsWith( basedirs[i] ) )
+            {
+                buildDirectory = '.' + buildDirectory.substring( basedirs[i].length() );
+                break;
+            }
+        }
+
+        if( buildDirectory.indexOf( "${" ) >= 0 )
+        {
+            getLog().warn( "Unable to resolve build directory " + buildDirectory + ", copying it anyway" );
+            return null;
+        }
+
+        File buildDir = new File( buildDirectory );
+        if( !buildDir.isAbsolute() )
+        {
+            buildDir = new File( bundlePom.getBasedir(), buildDirectory );
+        }
+
+        String[] relativePath = DirUtils.calculateRelativePath( bundlePom.getBasedir(), buildDir );
+        if( null == relativePath || relativePath[0].length() > 0 || relativePath[2].length() == 0 )
+        {
+            // build output isn't inside the bundle, so there's nothing to leave out
+            return null;
+        }
+
+        return relativePath[2];
+    }
+
+    /**
+     * Copy the given files, using several threads if requested
+     * 
+     * @param fromDir source directory
+     * @param toDir target directory
+     * @param paths relative paths of the files to copy
+     * @throws MojoExecutionException
+     */
+    private void copyFiles( final File fromDir, final File toDir, String[] paths )
+        throws MojoExecutionException
+    {
+        TaskRunner copier = new TaskRunner( "move", threads );
+        for( int i = 0; i < paths.length; i++ )
+        {
+            final String path = paths[i];
+            copier.add( new TaskRunner.Task()
+            {
+                public void run()
+                    throws IOException
+                {
+                    copyFile( new File( fromDir, path ), new File( toDir, path ) );
+                }
+            } );
+        }
+
+        copier.run();
+    }
+
+    /**
+     * Copy a single file using channel transfers, which lets the operating system do the copying where it can
+     * 
+     * @param from source file
+     * @param to target file
+     * @throws IOException
+     */
+    private static void copyFile( File from, File to )
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream( from );
+        FileOutputStream out = null;
+
+        try
+        {
+            out = new FileOutputStream( to );
+
+            FileChannel source = in.getChannel();
+            FileChannel target = out.getChannel();
+
+            long size = source.size();
+            long position = 0;
+            while( position < size )
+            {
+                long count = source.transferTo( position, size - position, target );
+                if( count <= 0 )
+                {
+                    break; // file must have shrunk
+                }
+                position += count;
+            }
+
+            // the original is deleted once everything is copied, so never accept a short copy
+            if( position != size || target.size() != from.length() )
+            {
+                throw new IOException( "Incomplete copy of " + from + " to " + to );
+            }
+        }
+        finally
+        {
+            IOUtil.close( out );
+            IOUtil.close( in );
+        }
+
+        to.setLastModified( from.lastModified() );
+    }
+
     /**
      * @param bundlePom current Maven POM for the bundle
      * @param newBundleDir new location for the bundle
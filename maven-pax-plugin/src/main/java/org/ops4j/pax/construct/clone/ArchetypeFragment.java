@@ -16,17 +16,37 @@ package org.ops4j.pax.construct.clone;
  * limitations under the License.
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.archiver.Archiver;
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.util.DirectoryScanner;
@@ -45,6 +65,16 @@ public class ArchetypeFragment
     private static final int BINARY_FILE = 0;
     private static final int TEXT_FILE = 1;
 
+    /**
+     * Number of leading bytes checked when deciding if a file contains text
+     */
+    private static final int SNIFF_SIZE = 8192;
+
+    /**
+     * Default platform encoding, used to read and write text files
+     */
+    private static final String PLATFORM_ENCODING = new OutputStreamWriter( new ByteArrayOutputStream() ).getEncoding();
+
     /**
      * Simple counter to keep fragments unique
      */
@@ -75,14 +105,45 @@ public class ArchetypeFragment
      */
     private boolean m_unify;
 
+    /**
+     * Single-pass translator for general text content
+     */
+    private TextTranslator m_translator;
+
+    /**
+     * Single-pass translator for Maven POMs belonging to contained projects
+     */
+    private TextTranslator m_pomTranslator;
+
+    /**
+     * Fragment jar being streamed, null when files are staged in the temporary directory
+     */
+    private JarOutputStream m_archive;
+
+    /**
+     * Location of the fragment jar being streamed
+     */
+    private File m_archiveFile;
+
+    /**
+     * Archetype resource paths already written, whether staged or streamed
+     */
+    private Set m_resourcePaths;
+
+    /**
+     * Log for reporting skipped files
+     */
+    private Log m_log;
+
     /**
      * Create a new archetype fragment
      * 
      * @param tempDir some temporary directory
      * @param namespace primary namespace, may be null
      * @param unify set true when unifying Maven projects
+     * @param log log for reporting skipped files
      */
-    public ArchetypeFragment( File tempDir, String namespace, boolean unify )
+    public ArchetypeFragment( File tempDir, String namespace, boolean unify, Log log )
     {
         // always allow partial use
         m_model = new ArchetypeModel();
@@ -94,8 +155,10 @@ public class ArchetypeFragment
         // unique scratch directory for the fragment assembly
         m_tempDir = new File( tempDir, "fragment" + ( m_fragmentCount++ ) );
         m_includedFiles = new ArrayList();
+        m_resourcePaths = new HashSet();
 
         m_unify = unify;
+        m_log = log;
     }
 
     /**
@@ -106,8 +169,6 @@ public class ArchetypeFragment
      */
     public void addPom( File projectDir, Pom pom )
     {
-        File toDir = new File( m_tempDir, "archetype-resources" );
-
         File pomFile;
         if( null == pom )
         {
@@ -119,7 +180,7 @@ public class ArchetypeFragment
         }
 
         // relocate to 'classic' archetype location
-        translateFile( pomFile.getParentFile(), pomFile.getName(), toDir, "pom.xml" );
+        translateFile( pomFile.getParentFile(), pomFile.getName(), "pom.xml" );
     }
 
     /**
@@ -143,7 +204,6 @@ public class ArchetypeFragment
         // primary source location
         String packagePath = sourcePath + m_namespace.replace( '.', '/' ) + '/';
 
-        File to = new File( m_tempDir, "archetype-resources" );
         for( Iterator i = getFilenames( projectDir, sourcePath, null, null ).iterator(); i.hasNext(); )
         {
             String filename = (String) i.next();
@@ -151,7 +211,7 @@ public class ArchetypeFragment
 
             // relocate to 'classic' archetype location (primary package gets trimmed)
             String target = StringUtils.replace( filename, packagePath, sourcePath );
-            int status = translateFile( projectDir, filename, to, target );
+            int status = translateFile( projectDir, filename, target );
             if( NO_SUCH_FILE == status )
             {
                 continue;
@@ -200,7 +260,6 @@ public class ArchetypeFragment
         // use relative path in search
         String resourcePath = pivot[2];
 
-        File to = new File( m_tempDir, "archetype-resources" );
         for( Iterator i = getFilenames( projectDir, resourcePath, includes, excludes ).iterator(); i.hasNext(); )
         {
             String filename = (String) i.next();
@@ -214,7 +273,7 @@ public class ArchetypeFragment
             }
 
             // relocate to 'classic' archetype location
-            int status = translateFile( projectDir, filename, to, target );
+            int status = translateFile( projectDir, filename, target );
             if( NO_SUCH_FILE != status )
             {
                 addResourceEntry( target, isTest, TEXT_FILE == status );
@@ -322,6 +381,78 @@ public class ArchetypeFragment
         }
     }
 
+    /**
+     * Stream translated files straight into the fragment jar, instead of staging them in the temporary directory (call
+     * this before adding any files and finish with {@link #closeArchive()})
+     * 
+     * @param fragmentId unique archetype identifier
+     * @throws MojoExecutionException
+     */
+    public void openArchive( String fragmentId )
+        throws MojoExecutionException
+    {
+        m_model.setId( fragmentId );
+
+        File jarFile = new File( m_tempDir.getParentFile(), fragmentId + ".jar" );
+
+        m_archiveFile = jarFile;
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        manifest.getMainAttributes().putValue( "Created-By", "Pax-Construct" );
+
+        try
+        {
+            m_archive = new JarOutputStream( new FileOutputStream( jarFile ), manifest );
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to create archetype archive " + jarFile, e );
+        }
+    }
+
+    /**
+     * Finish streaming the fragment jar by adding the archetype model
+     * 
+     * @throws MojoExecutionException
+     */
+    public void closeArchive()
+        throws MojoExecutionException
+    {
+        try
+        {
+            m_archive.putNextEntry( new JarEntry( "META-INF/archetype.xml" ) );
+            m_model.write( new OutputStreamWriter( m_archive, "UTF-8" ) );
+            m_archive.closeEntry();
+            m_archive.close();
+
+            m_archive = null;
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "I/O error saving archetype archive", e );
+        }
+        finally
+        {
+            abortArchive();
+        }
+    }
+
+    /**
+     * Discard any fragment jar that is still being streamed, so a failed capture doesn't leave a truncated jar behind
+     * (does nothing once the jar has been closed)
+     */
+    public void abortArchive()
+    {
+        if( null != m_archive )
+        {
+            IOUtil.close( m_archive );
+            m_archive = null;
+
+            m_archiveFile.delete();
+        }
+    }
+
     /**
      * Create archive of archetype fragment
      * 
@@ -375,39 +506,98 @@ public class ArchetypeFragment
     }
 
     /**
-     * Translate file content to work with Pax-Construct v2 archetype processing
-     * 
-     * @param text original text
+     * @return the token mappings used to translate content in this fragment
+     */
+    public String getTranslationMappings()
+    {
+        String mappings = getTranslator( "pom.xml" ).getMappings().toString();
+        if( m_unify )
+        {
+            mappings += getTranslator( "module/pom.xml" ).getMappings();
+        }
+        return mappings;
+    }
+
+    /**
      * @param path mapped file path
-     * @return translated text
+     * @return translator that converts file content to work with Pax-Construct v2 archetype processing
      */
-    private String translateTextFile( String text, String path )
+    private TextTranslator getTranslator( String path )
     {
-        String content = text;
+        // when unifying projects we need to comment out the 'poms' modules from contained projects
+        boolean isContainedPom = m_unify && path.endsWith( "/pom.xml" );
 
-        // protect special content from accidental replacement
-        content = StringUtils.replace( content, "$", "${dollar}" );
-        content = StringUtils.replace( content, "#", "${hash}" );
+        if( isContainedPom && null != m_pomTranslator )
+        {
+            return m_pomTranslator;
+        }
+        else if( !isContainedPom && null != m_translator )
+        {
+            return m_translator;
+        }
 
-        content = "#set( $dollar = '$' )" + System.getProperty( "line.separator" ) + content;
-        content = "#set( $hash = '#' )" + System.getProperty( "line.separator" ) + content;
+        TextTranslator translator = new TextTranslator();
+
+        // protect special content from accidental replacement
+        translator.addMapping( "$", "${dollar}" );
+        translator.addMapping( "#", "${hash}" );
 
         // standard archetype translation
-        content = StringUtils.replace( content, m_namespace, "${package}" );
+        translator.addMapping( m_namespace, "${package}" );
 
         // Pax-Construct v1 => v2 translation
-        content = StringUtils.replace( content, "bundle.package", "bundle.namespace" );
-        content = StringUtils.replace( content, "jar.groupId", "wrapped.groupId" );
-        content = StringUtils.replace( content, "jar.artifactId", "wrapped.artifactId" );
-        content = StringUtils.replace( content, "jar.version", "wrapped.version" );
+        translator.addMapping( "bundle.package", "bundle.namespace" );
+        translator.addMapping( "jar.groupId", "wrapped.groupId" );
+        translator.addMapping( "jar.artifactId", "wrapped.artifactId" );
+        translator.addMapping( "jar.version", "wrapped.version" );
 
-        if( m_unify && path.endsWith( "/pom.xml" ) )
+        if( isContainedPom )
+        {
+            translator.addMapping( "module>poms</module", "!-- module>poms</module --" );
+            m_pomTranslator = translator;
+        }
+        else
         {
-            // when unifying projects we need to comment out the 'poms' modules from contained projects
-            content = StringUtils.replace( content, "module>poms</module", "!-- module>poms</module --" );
+            m_translator = translator;
         }
 
-        return content;
+        return translator;
+    }
+
+    /**
+     * @param path path of the archetype resource
+     * @return stream for the resource content, either a staged file or an entry in the streamed jar
+     * @throws IOException
+     */
+    private OutputStream openResource( String path )
+        throws IOException
+    {
+        if( null == m_archive )
+        {
+            File file = new File( m_tempDir, "archetype-resources/" + path );
+            file.getParentFile().mkdirs();
+
+            return new FileOutputStream( file );
+        }
+
+        m_archive.putNextEntry( new JarEntry( "archetype-resources/" + path ) );
+
+        // closing the resource should only close the current entry, not the jar
+        return new FilterOutputStream( m_archive )
+        {
+            public void write( byte[] b, int off, int len )
+                throws IOException
+            {
+                out.write( b, off, len );
+            }
+
+            public void close()
+                throws IOException
+            {
+                flush();
+                m_archive.closeEntry();
+            }
+        };
     }
 
     /**
@@ -415,60 +605,105 @@ public class ArchetypeFragment
      * 
      * @param fromDir original base directory
      * @param originalPath original path
-     * @param toDir target base directory
      * @param mappedPath mapped path
      * @return NO_SUCH_FILE, BINARY_FILE or TEXT_FILE
      */
-    private int translateFile( File fromDir, String originalPath, File toDir, String mappedPath )
+    private int translateFile( File fromDir, String originalPath, String mappedPath )
     {
         File from = new File( fromDir, originalPath );
-        FileOutputStream out = null;
+        InputStream in = null;
+        OutputStream out = null;
 
         try
         {
-            FileInputStream in = new FileInputStream( from );
-            byte[] raw = IOUtil.toByteArray( in );
-            IOUtil.close( in );
+            in = new BufferedInputStream( new FileInputStream( from ), SNIFF_SIZE );
 
-            String text;
-            try
-            {
-                text = IOUtil.toString( raw );
-            }
-            catch( IOException e )
+            // text files can be mapped to new paths, binary files cannot
+            boolean isText = isTextContent( in );
+            String path = isText ? mappedPath : originalPath;
+            if( !m_resourcePaths.add( path ) )
             {
-                text = "";
+                // first file mapped to this path wins, whether the fragment is staged or streamed
+                m_log.warn( "Skipping " + from + ", duplicate archetype resource " + path );
+                return NO_SUCH_FILE;
             }
 
-            if( Arrays.equals( text.getBytes(), raw ) )
+            out = openResource( path );
+            if( isText )
             {
-                // text files can be mapped to new paths
-                File file = new File( toDir, mappedPath );
-                file.getParentFile().mkdirs();
+                Writer writer = new BufferedWriter( new OutputStreamWriter( out ) );
+
+                String newLine = System.getProperty( "line.separator" );
+                writer.write( "#set( $hash = '#' )" + newLine );
+                writer.write( "#set( $dollar = '$' )" + newLine );
 
-                out = new FileOutputStream( file );
-                IOUtil.copy( translateTextFile( text, mappedPath ), out );
+                getTranslator( mappedPath ).translate( new InputStreamReader( in ), writer );
+                writer.flush();
 
                 return TEXT_FILE;
             }
 
-            // binary files cannot be mapped to new paths
-            File file = new File( toDir, originalPath );
-            file.getParentFile().mkdirs();
-
-            out = new FileOutputStream( file );
-            IOUtil.copy( raw, out );
+            IOUtil.copy( in, out );
 
             return BINARY_FILE;
         }
         catch( IOException e )
         {
-            System.err.println( "WARNING: unable to clone " + from );
+            m_log.warn( "Unable to clone " + from );
             return NO_SUCH_FILE;
         }
         finally
         {
             IOUtil.close( out );
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Sniff the start of the stream to see if it holds text in the default platform encoding
+     * 
+     * @param in buffered stream, supporting mark and reset
+     * @return true if the content looks like text, otherwise false
+     * @throws IOException
+     */
+    private static boolean isTextContent( InputStream in )
+        throws IOException
+    {
+        byte[] prefix = new byte[SNIFF_SIZE];
+
+        in.mark( SNIFF_SIZE );
+        int length = 0;
+        int n = 0;
+        while( length < SNIFF_SIZE && ( n = in.read( prefix, length, SNIFF_SIZE - length ) ) >= 0 )
+        {
+            length += n;
+        }
+        in.reset();
+
+        for( int i = 0; i < length; i++ )
+        {
+            if( 0 == prefix[i] )
+            {
+                // NUL bytes don't appear in text
+                return false;
+            }
+        }
+
+        try
+        {
+            CharsetDecoder decoder = Charset.forName( PLATFORM_ENCODING ).newDecoder();
+
+            ByteBuffer bytes = ByteBuffer.wrap( prefix, 0, length );
+            CharBuffer chars = CharBuffer.allocate( (int) ( length * decoder.maxCharsPerByte() ) + 1 );
+
+            // a partial character at the end of the prefix is fine, as long as there's more to come
+            CoderResult result = decoder.decode( bytes, chars, n < 0 );
+            return !result.isError();
+        }
+        catch( RuntimeException e )
+        {
+            // unknown platform encoding, assume text
+            return true;
         }
     }
 
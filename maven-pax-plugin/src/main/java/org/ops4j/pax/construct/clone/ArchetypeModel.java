@@ -140,7 +140,18 @@ public class ArchetypeModel
     {
         file.getParentFile().mkdirs();
         Writer writer = StreamFactory.newXmlWriter( file );
-        Xpp3DomWriter.write( writer, m_dom );
+        write( writer );
         IOUtil.close( writer );
     }
+
+    /**
+     * @param writer where to write the archetype model (not closed afterwards)
+     * @throws IOException
+     */
+    public void write( Writer writer )
+        throws IOException
+    {
+        Xpp3DomWriter.write( writer, m_dom );
+        writer.flush();
+    }
 }
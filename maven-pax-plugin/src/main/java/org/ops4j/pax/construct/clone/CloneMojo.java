@@ -18,7 +18,9 @@ package org.ops4j.pax.construct.clone;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -36,9 +38,11 @@ import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
+import org.ops4j.pax.construct.util.DigestUtils;
 import org.ops4j.pax.construct.util.DirUtils;
 import org.ops4j.pax.construct.util.PomUtils;
 import org.ops4j.pax.construct.util.PomUtils.Pom;
+import org.ops4j.pax.construct.util.TaskRunner;
 
 /**
  * Clones an existing project and produces a script (plus archetypes) to mimic its structure using Pax-Construct
@@ -52,6 +56,14 @@ import org.ops4j.pax.construct.util.PomUtils.Pom;
  */
 public class CloneMojo extends AbstractMojo
 {
+    /**
+     * Paths ignored when checking if a bundle project has changed
+     */
+    private static final List BUNDLE_DIGEST_EXCLUDES = Arrays.asList( new String[]
+    {
+        "target/", "runner/", "pom.xml"
+    } );
+
     /**
      * Component factory for various archivers
      * 
@@ -119,6 +131,36 @@ public class CloneMojo extends AbstractMojo
      */
     private boolean unify;
 
+    /**
+     * The version of the currently executing plugin.
+     * 
+     * @parameter default-value="${plugin.version}"
+     * @required
+     * @readonly
+     */
+    private String pluginVersion;
+
+    /**
+     * Number of threads used to capture project fragments, values above one capture independent projects in parallel.
+     * 
+     * @parameter expression="${threads}" default-value="1"
+     */
+    private int threads;
+
+    /**
+     * When true, stream translated files straight into each fragment jar instead of staging them on disk first.
+     * 
+     * @parameter expression="${streamFragments}"
+     */
+    private boolean streamFragments;
+
+    /**
+     * When true, the generated shell scripts run independent commands in parallel (Windows scripts stay sequential).
+     * 
+     * @parameter expression="${parallelScripts}"
+     */
+    private boolean parallelScripts;
+
     /**
      * List of directories that have already been processed
      */
@@ -139,6 +181,16 @@ public class CloneMojo extends AbstractMojo
      */
     private List m_installCommands;
 
+    /**
+     * Sequence of archetype fragment ids
+     */
+    private List m_fragmentIds;
+
+    /**
+     * Sequence of fragment captures waiting to be run in parallel
+     */
+    private TaskRunner m_pendingCaptures;
+
     /**
      * {@inheritDoc}
      */
@@ -146,13 +198,15 @@ public class CloneMojo extends AbstractMojo
         throws MojoExecutionException
     {
         // general purpose Pax-Construct script
-        PaxScript buildScript = new PaxScriptImpl();
+        PaxScript buildScript = new PaxScriptImpl( parallelScripts );
 
         m_bundleNameMap = new HashMap();
         m_majorProjectMap = new HashMap();
         m_handledDirs = new ArrayList();
 
         m_installCommands = new ArrayList();
+        m_fragmentIds = new ArrayList();
+        m_pendingCaptures = new TaskRunner( "clone", threads );
 
         getFragmentDir().mkdirs();
 
@@ -196,6 +250,9 @@ public class CloneMojo extends AbstractMojo
         // grab everything else
         archiveMajorProjects();
 
+        // script is already in reactor order, so only the fragment content is captured in parallel
+        runPendingCaptures();
+
         writePlatformScripts( buildScript );
     }
 
@@ -211,6 +268,7 @@ public class CloneMojo extends AbstractMojo
 
         File winScript = new File( m_tempdir, scriptName + ".bat" );
         File nixScript = new File( m_tempdir, scriptName + ".sh" );
+        File replayFile = new File( m_tempdir, scriptName + ".xml" );
 
         getLog().info( "" );
         getLog().info( "SUCCESSFULLY CLONED " + cloneId );
@@ -238,6 +296,16 @@ public class CloneMojo extends AbstractMojo
             getLog().warn( "Unable to write " + winScript );
         }
 
+        try
+        {
+            getLog().info( "Saving replay descriptor " + replayFile );
+            script.writeReplay( title, replayFile, m_fragmentIds );
+        }
+        catch( IOException e )
+        {
+            getLog().warn( "Unable to write " + replayFile + ": " + e.getMessage() );
+        }
+
         getLog().info( "" );
         getLog().info( "CLONE DIRECTORY " + m_tempdir );
         getLog().info( "" );
@@ -515,82 +583,110 @@ public class CloneMojo extends AbstractMojo
     }
 
     /**
-     * Find the most likely candidate for the primary Java package
+     * Find the most likely candidate for the primary Java package, using a breadth-first walk of the source tree that
+     * stops at the shallowest internal package (or one level below the shallowest package, if there is none)
      * 
      * @param dir source directory
      * @return primary Java package
      */
-    private String findPrimaryPackage( String dir )
+    private static String findPrimaryPackage( String dir )
     {
-        String[] pathInclude = new String[]
-        {
-            "**/*.java" // consider all Java sources
-        };
+        List level = new ArrayList();
+        level.add( "" );
 
-        DirectoryScanner scanner = new DirectoryScanner();
+        String primaryPackage = null;
+        int depthLimit = Integer.MAX_VALUE;
 
-        scanner.setIncludes( pathInclude );
-        scanner.setFollowSymlinks( false );
-        scanner.addDefaultExcludes();
-        scanner.setBasedir( dir );
+        for( int depth = 0; depth <= depthLimit && !level.isEmpty(); depth++ )
+        {
+            List nextLevel = new ArrayList();
+            for( Iterator i = level.iterator(); i.hasNext(); )
+            {
+                String path = (String) i.next();
+                File[] children = new File( dir, path ).listFiles();
+                if( null == children )
+                {
+                    continue;
+                }
 
-        scanner.scan();
+                // keep the walk deterministic
+                Arrays.sort( children );
 
-        String path = null;
+                boolean hasSource = false;
+                for( int c = 0; c < children.length; c++ )
+                {
+                    String name = children[c].getName();
+                    if( children[c].isDirectory() )
+                    {
+                        if( isPackageDir( children[c] ) )
+                        {
+                            nextLevel.add( path + name + '/' );
+                        }
+                    }
+                    else if( name.endsWith( ".java" ) )
+                    {
+                        hasSource = true;
+                    }
+                }
 
-        String[] candidates = scanner.getIncludedFiles();
-        for( int i = 0; i < scanner.getIncludedFiles().length; i++ )
-        {
-            String newPath = candidates[i];
-            if( null == path || ( validCandidate( path, newPath ) && path.length() > newPath.length() ) )
-            {
-                path = newPath;
+                if( hasSource && path.length() > 0 )
+                {
+                    String folder = new File( path ).getName();
+                    if( "internal".equalsIgnoreCase( folder ) || "impl".equalsIgnoreCase( folder ) )
+                    {
+                        // internal packages are the best candidates to find the primary package
+                        return getJavaNamespace( path );
+                    }
+                    else if( null == primaryPackage )
+                    {
+                        // any internal package of the primary package will be one level down
+                        primaryPackage = getJavaNamespace( path );
+                        depthLimit = depth + 1;
+                    }
+                }
             }
+
+            level = nextLevel;
         }
 
-        return getJavaNamespace( path );
+        return primaryPackage;
     }
 
     /**
-     * @param current current primary java path
-     * @param candidate candidate java path
-     * @return true if the candidate might be a better primary java path, otherwise false
+     * @param dir directory in the source tree
+     * @return true if the directory could hold Java sources, otherwise false
      */
-    private boolean validCandidate( String current, String candidate )
+    private static boolean isPackageDir( File dir )
     {
-        // internal packages are good candidates to find the primary package
-        String candidateFolder = new File( candidate ).getParentFile().getName();
-        if( "internal".equalsIgnoreCase( candidateFolder ) || "impl".equalsIgnoreCase( candidateFolder ) )
+        String name = dir.getName();
+        if( name.startsWith( "." ) || "CVS".equals( name ) || "SCCS".equals( name ) )
         {
-            return true;
+            // skip usual version control folders
+            return false;
         }
 
-        // but if we already have an internal package, ignore non-internal packages
-        String currentFolder = new File( current ).getParentFile().getName();
-        if( "internal".equalsIgnoreCase( currentFolder ) || "impl".equalsIgnoreCase( currentFolder ) )
+        try
+        {
+            // don't follow symbolic links
+            File parent = dir.getParentFile().getCanonicalFile();
+            return new File( parent, name ).equals( dir.getCanonicalFile() );
+        }
+        catch( IOException e )
         {
             return false;
         }
-
-        // neither is an internal package, so candidate package may be better
-        return true;
     }
 
     /**
      * Convert source code location into dotted Java namespace
      * 
-     * @param javaFile source location
+     * @param packagePath package location
      * @return Java namespace
      */
-    private String getJavaNamespace( String javaFile )
+    private static String getJavaNamespace( String packagePath )
     {
-        if( null == javaFile )
-        {
-            return null;
-        }
-
-        // strip the classname and any internal package
-        File packageDir = new File( javaFile ).getParentFile();
+        // strip any internal package
+        File packageDir = new File( packagePath );
         if( "internal".equals( packageDir.getName() ) || "impl".equals( packageDir.getName() ) )
         {
             packageDir = packageDir.getParentFile();
@@ -626,13 +722,69 @@ public class CloneMojo extends AbstractMojo
      * @return clause identifying the archetype fragment
      * @throws MojoExecutionException
      */
-    private String createBundleArchetype( MavenProject project, String namespace, Pom customizedPom )
+    private String createBundleArchetype( final MavenProject project, final String namespace, final Pom customizedPom )
         throws MojoExecutionException
     {
-        File baseDir = project.getBasedir();
+        // archetype must use different id
+        String groupId = project.getGroupId();
+        String artifactId = project.getArtifactId() + "-archetype";
+        String version = project.getVersion();
+
+        final File baseDir = project.getBasedir();
+
+        final String fragmentId = groupId + ':' + artifactId + ':' + version;
+        final ArchetypeFragment fragment = new ArchetypeFragment( getFragmentDir(), namespace, false, getLog() );
+        final Archiver archiver = streamFragments ? null : newJarArchiver();
 
         getLog().info( "Cloning bundle project " + project.getArtifactId() );
-        ArchetypeFragment fragment = new ArchetypeFragment( getFragmentDir(), namespace, false );
+        scheduleCapture( new FragmentCapture()
+        {
+            public void capture()
+                throws MojoExecutionException
+            {
+                File pomFile = ( null == customizedPom ) ? new File( baseDir, "pom.xml" ) : customizedPom.getFile();
+                String settings = fragmentId + ':' + namespace;
+
+                String digest = digestFragment( fragment, baseDir, BUNDLE_DIGEST_EXCLUDES, pomFile, settings );
+                if( reuseFragment( fragmentId, digest ) )
+                {
+                    return;
+                }
+
+                openFragment( fragment, fragmentId, archiver );
+                try
+                {
+                    captureBundleProject( fragment, project, namespace, customizedPom );
+
+                    // archive customized bundle sources, POM and Bnd instructions
+                    closeFragment( fragment, fragmentId, archiver );
+                }
+                finally
+                {
+                    fragment.abortArchive();
+                }
+                saveDigest( fragmentId, digest );
+            }
+        } );
+
+        return fragmentId;
+    }
+
+    /**
+     * Collect bundle sources, resources, POM and Bnd settings into the archetype fragment
+     * 
+     * @param fragment archetype fragment
+     * @param project Maven project
+     * @param namespace Java namespace, may be null
+     * @param customizedPom customized Maven project model, may be null
+     * @throws MojoExecutionException
+     */
+    private static void captureBundleProject( ArchetypeFragment fragment, MavenProject project, String namespace,
+        Pom customizedPom )
+        throws MojoExecutionException
+    {
+        File baseDir = project.getBasedir();
+
         fragment.addPom( baseDir, customizedPom );
 
         if( null != namespace )
@@ -655,17 +807,6 @@ public class CloneMojo extends AbstractMojo
 
         // consider everything else in the bundle directory to be a resource
         fragment.addResources( baseDir, baseDir.getPath(), null, excludes, false );
-
-        // archetype must use different id
-        String groupId = project.getGroupId();
-        String artifactId = project.getArtifactId() + "-archetype";
-        String version = project.getVersion();
-
-        // archive customized bundle sources, POM and Bnd instructions
-        String fragmentId = groupId + ':' + artifactId + ':' + version;
-        fragment.createArchive( fragmentId.replace( ':', '_' ), newJarArchiver() );
-
-        return fragmentId;
     }
 
     /**
@@ -759,33 +900,263 @@ public class CloneMojo extends AbstractMojo
     private String createProjectArchetype( MavenProject project )
         throws MojoExecutionException
     {
-        File baseDir = project.getBasedir();
-
-        getLog().info( "Cloning primary project " + project.getArtifactId() );
-        ArchetypeFragment fragment = new ArchetypeFragment( getFragmentDir(), null, unify );
-        fragment.addPom( baseDir, null );
+        final File baseDir = project.getBasedir();
 
-        List excludes = new ArrayList();
+        final List excludes = new ArrayList();
         excludes.addAll( getExcludedPaths( project ) );
         excludes.add( "**/target/" );
         excludes.add( "runner/" );
         excludes.add( "pom.xml" );
 
-        // consider everything else that's not been handled to be a resource
-        fragment.addResources( baseDir, baseDir.getPath(), null, excludes, false );
-
         // archetype must use different id
         String groupId = project.getGroupId();
         String artifactId = project.getArtifactId() + "-archetype";
         String version = project.getVersion();
 
-        // archive all the customized non-bundle POMs and projects
-        String fragmentId = groupId + ':' + artifactId + ':' + version;
-        fragment.createArchive( fragmentId.replace( ':', '_' ), newJarArchiver() );
+        final String fragmentId = groupId + ':' + artifactId + ':' + version;
+        final ArchetypeFragment fragment = new ArchetypeFragment( getFragmentDir(), null, unify, getLog() );
+        final Archiver archiver = streamFragments ? null : newJarArchiver();
+
+        getLog().info( "Cloning primary project " + project.getArtifactId() );
+        scheduleCapture( new FragmentCapture()
+        {
+            public void capture()
+                throws MojoExecutionException
+            {
+                File pomFile = new File( baseDir, "pom.xml" );
+                String settings = fragmentId + ':' + unify;
+
+                String digest = digestFragment( fragment, baseDir, excludes, pomFile, settings );
+                if( reuseFragment( fragmentId, digest ) )
+                {
+                    return;
+                }
+
+                openFragment( fragment, fragmentId, archiver );
+                try
+                {
+                    fragment.addPom( baseDir, null );
+
+                    // consider everything else that's not been handled to be a resource
+                    fragment.addResources( baseDir, baseDir.getPath(), null, excludes, false );
+
+                    // archive all the customized non-bundle POMs and projects
+                    closeFragment( fragment, fragmentId, archiver );
+                }
+                finally
+                {
+                    fragment.abortArchive();
+                }
+                saveDigest( fragmentId, digest );
+            }
+        } );
 
         return fragmentId;
     }
 
+    /**
+     * Calculate a digest of everything that goes into an archetype fragment, so unchanged projects can be skipped
+     * 
+     * @param fragment archetype fragment
+     * @param baseDir project directory
+     * @param excludes list of excluded paths
+     * @param pomFile project POM, possibly customized
+     * @param settings other settings that affect the fragment
+     * @return hex encoded digest
+     * @throws MojoExecutionException
+     */
+    private String digestFragment( ArchetypeFragment fragment, File baseDir, List excludes, File pomFile,
+        String settings )
+        throws MojoExecutionException
+    {
+        DirectoryScanner scanner = new DirectoryScanner();
+
+        scanner.setExcludes( (String[]) excludes.toArray( new String[excludes.size()] ) );
+        scanner.setFollowSymlinks( false );
+        scanner.addDefaultExcludes();
+        scanner.setBasedir( baseDir );
+
+        scanner.scan();
+
+        // scanner order depends on the filesystem
+        String[] filenames = scanner.getIncludedFiles();
+        Arrays.sort( filenames );
+
+        File file = pomFile;
+        try
+        {
+            MessageDigest digest = DigestUtils.newDigest();
+
+            // a different plugin or translation can produce a different fragment from the same content
+            DigestUtils.digestText( digest, pluginVersion );
+            DigestUtils.digestText( digest, fragment.getTranslationMappings() );
+            DigestUtils.digestText( digest, settings );
+
+            DigestUtils.digestEntry( digest, "pom.xml", pomFile );
+            for( int i = 0; i < filenames.length; i++ )
+            {
+                file = new File( baseDir, filenames[i] );
+                DigestUtils.digestEntry( digest, filenames[i], file );
+            }
+
+            return DigestUtils.toHex( digest.digest() );
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "I/O error reading " + file, e );
+        }
+    }
+
+    /**
+     * @param fragmentId archetype fragment id
+     * @return file holding the digest of the last capture
+     */
+    private File getDigestFile( String fragmentId )
+    {
+        return new File( getFragmentDir(), fragmentId.replace( ':', '_' ) + ".md5" );
+    }
+
+    /**
+     * Check if the fragment jar from a previous clone can be reused, otherwise remove its old digest
+     * 
+     * @param fragmentId archetype fragment id
+     * @param digest digest of the current project content
+     * @return true if the existing fragment jar is still valid, otherwise false
+     */
+    private boolean reuseFragment( String fragmentId, String digest )
+    {
+        File digestFile = getDigestFile( fragmentId );
+        File jarFile = new File( getFragmentDir(), fragmentId.replace( ':', '_' ) + ".jar" );
+
+        try
+        {
+            if( jarFile.exists() && digestFile.exists() && digest.equals( FileUtils.fileRead( digestFile ).trim() ) )
+            {
+                getLog().info( "Reusing unchanged fragment " + fragmentId );
+                return true;
+            }
+        }
+        catch( IOException e )
+        {
+            getLog().debug( "Unable to read " + digestFile );
+        }
+
+        // in case capture fails part way
+        digestFile.delete();
+
+        return false;
+    }
+
+    /**
+     * @param fragmentId archetype fragment id
+     * @param digest digest of the captured project content
+     */
+    private void saveDigest( String fragmentId, String digest )
+    {
+        File digestFile = getDigestFile( fragmentId );
+
+        try
+        {
+            FileUtils.fileWrite( digestFile.getPath(), digest );
+        }
+        catch( IOException e )
+        {
+            getLog().warn( "Unable to write " + digestFile );
+        }
+    }
+
+    /**
+     * @param fragment archetype fragment
+     * @param fragmentId archetype fragment id
+     * @param archiver Jar archiver, null when streaming fragments
+     * @throws MojoExecutionException
+     */
+    private static void openFragment( ArchetypeFragment fragment, String fragmentId, Archiver archiver )
+        throws MojoExecutionException
+    {
+        if( null == archiver )
+        {
+            fragment.openArchive( fragmentId.replace( ':', '_' ) );
+        }
+    }
+
+    /**
+     * @param fragment archetype fragment
+     * @param fragmentId archetype fragment id
+     * @param archiver Jar archiver, null when streaming fragments
+     * @throws MojoExecutionException
+     */
+    private static void closeFragment( ArchetypeFragment fragment, String fragmentId, Archiver archiver )
+        throws MojoExecutionException
+    {
+        if( null == archiver )
+        {
+            fragment.closeArchive();
+        }
+        else
+        {
+            fragment.createArchive( fragmentId.replace( ':', '_' ), archiver );
+        }
+    }
+
+    /**
+     * Deferred capture of project content into an archetype fragment
+     */
+    private interface FragmentCapture
+    {
+        /**
+         * Collect project content and archive it as an archetype fragment
+         * 
+         * @throws MojoExecutionException
+         */
+        void capture()
+            throws MojoExecutionException;
+    }
+
+    /**
+     * Run the capture now, or queue it for later if running in parallel
+     * 
+     * @param capture deferred fragment capture
+     * @throws MojoExecutionException
+     */
+    private void scheduleCapture( final FragmentCapture capture )
+        throws MojoExecutionException
+    {
+        if( threads > 1 )
+        {
+            m_pendingCaptures.add( new TaskRunner.Task()
+            {
+                public void run()
+                    throws MojoExecutionException
+                {
+                    capture.capture();
+                }
+            } );
+        }
+        else
+        {
+            capture.capture();
+        }
+    }
+
+    /**
+     * Run all queued fragment captures using a fixed number of worker threads
+     * 
+     * @throws MojoExecutionException
+     */
+    private void runPendingCaptures()
+        throws MojoExecutionException
+    {
+        if( m_pendingCaptures.size() > 0 )
+        {
+            getLog().info(
+                "Capturing " + m_pendingCaptures.size() + " fragments using " + m_pendingCaptures.getWorkerCount()
+                    + " threads" );
+
+            m_pendingCaptures.run();
+        }
+    }
+
     /**
      * Find which paths in this Maven project have already been collected, and should therefore be excluded
      * 
@@ -869,7 +1240,7 @@ public class CloneMojo extends AbstractMojo
         String[] ids = fragmentId.split( ":" );
 
         // add Maven command to install the archetype fragment before using it
-        buffer.append( "mvn -N install:install-file \"-Dpackaging=jar\" \"-DgroupId=" );
+        buffer.append( "${PAX_MAVEN} -N install:install-file \"-Dpackaging=jar\" \"-DgroupId=" );
         buffer.append( ids[0] );
         buffer.append( "\" \"-DartifactId=" );
         buffer.append( ids[1] );
@@ -880,5 +1251,6 @@ public class CloneMojo extends AbstractMojo
         buffer.append( ".jar\"" );
 
         m_installCommands.add( buffer );
+        m_fragmentIds.add( fragmentId );
     }
 }
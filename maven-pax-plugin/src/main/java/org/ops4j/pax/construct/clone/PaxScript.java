@@ -68,4 +68,15 @@ public interface PaxScript
      */
     void write( String title, File scriptFile, List setupCommands )
         throws IOException;
+
+    /**
+     * Write the current script as a replay descriptor, which can be run inside a single Maven session by pax:replay
+     * 
+     * @param title descriptive name for the script
+     * @param replayFile where the descriptor should be saved
+     * @param fragmentIds sequence of archetype fragment ids (groupId:artifactId:version) to install before replaying
+     * @throws IOException
+     */
+    void writeReplay( String title, File replayFile, List fragmentIds )
+        throws IOException;
 }
@@ -19,14 +19,24 @@ package org.ops4j.pax.construct.clone;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomWriter;
 import org.ops4j.pax.construct.util.StreamFactory;
 
 /**
@@ -35,17 +45,44 @@ import org.ops4j.pax.construct.util.StreamFactory;
 public class PaxScriptImpl
     implements PaxScript
 {
+    /**
+     * Matches option definitions in the Pax-Construct script templates, such as 'key' : 'p', 'name' : 'package'
+     */
+    private static final Pattern OPTION_PATTERN =
+        Pattern.compile( "'key'\\s*:\\s*'(\\w)'\\s*,\\s*'name'\\s*:\\s*'([^']*)'" );
+
+    /**
+     * Maps command names to their option names, read from the same definitions used to generate the scripts
+     */
+    private static final Map OPTION_NAMES = new HashMap();
+
     /**
      * Sequence of Pax-Construct commands
      */
     private final List m_commands;
 
+    /**
+     * When true, independent commands are run in parallel batches (shell scripts only)
+     */
+    private final boolean m_parallel;
+
     /**
      * Create a new Pax-Construct script builder
      */
     public PaxScriptImpl()
+    {
+        this( false );
+    }
+
+    /**
+     * Create a new Pax-Construct script builder
+     * 
+     * @param parallel true to run independent commands in parallel batches (shell scripts only), otherwise false
+     */
+    public PaxScriptImpl( boolean parallel )
     {
         m_commands = new ArrayList();
+        m_parallel = parallel;
     }
 
     /**
@@ -82,6 +119,22 @@ public class PaxScriptImpl
             m_flag = flag;
         }
 
+        /**
+         * @return name of the flag
+         */
+        String getName()
+        {
+            return m_flag;
+        }
+
+        /**
+         * @return flag setting
+         */
+        String getValue()
+        {
+            return "true";
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -118,6 +171,14 @@ public class PaxScriptImpl
             m_value = value;
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        String getValue()
+        {
+            return m_value;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -381,10 +442,277 @@ public class PaxScriptImpl
         writeMessage( writer, "RECREATING MAVEN PROJECT BASED ON [" + title + ']' );
         writer.newLine();
 
-        writeCommands( writer, isBatchFile, m_commands );
+        if( m_parallel && !isBatchFile )
+        {
+            // batch files have no reliable way to wait for a group of background commands
+            writeBatches( writer, scheduleBatches( m_commands ) );
+        }
+        else
+        {
+            writeCommands( writer, isBatchFile, m_commands );
+        }
+
         IOUtil.close( writer );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void writeReplay( String title, File replayFile, List fragmentIds )
+        throws IOException
+    {
+        // Sort so projects are created before their bundles
+        Collections.sort( m_commands, new ByTargetDir() );
+
+        Xpp3Dom replay = new Xpp3Dom( "replay" );
+        replay.setAttribute( "title", title );
+
+        for( Iterator i = fragmentIds.iterator(); i.hasNext(); )
+        {
+            String fragmentId = (String) i.next();
+            String[] ids = fragmentId.split( ":" );
+
+            Xpp3Dom fragment = new Xpp3Dom( "fragment" );
+            fragment.setAttribute( "groupId", ids[0] );
+            fragment.setAttribute( "artifactId", ids[1] );
+            fragment.setAttribute( "version", ids[2] );
+            fragment.setAttribute( "file", "fragments/" + fragmentId.replace( ':', '_' ) + ".jar" );
+            replay.addChild( fragment );
+        }
+
+        for( Iterator i = m_commands.iterator(); i.hasNext(); )
+        {
+            PaxCommand command = (PaxCommand) i.next();
+
+            Xpp3Dom call = new Xpp3Dom( "command" );
+            call.setAttribute( "goal", command.getName() );
+
+            for( Iterator j = command.getPaxOptions().iterator(); j.hasNext(); )
+            {
+                Flag flag = (Flag) j.next();
+                if( "o".equals( flag.getName() ) )
+                {
+                    addSetting( call, "overwrite", flag.getValue() );
+                }
+                else
+                {
+                    addSetting( call, getOptionName( command.getName(), flag.getName() ), flag.getValue() );
+                }
+            }
+
+            for( Iterator j = command.getMvnOptions().iterator(); j.hasNext(); )
+            {
+                // strip the -D prefix
+                Flag flag = (Flag) j.next();
+                addSetting( call, flag.getName().substring( 1 ), flag.getValue() );
+            }
+
+            replay.addChild( call );
+        }
+
+        replayFile.getParentFile().mkdirs();
+        Writer writer = StreamFactory.newXmlWriter( replayFile );
+        try
+        {
+            Xpp3DomWriter.write( writer, replay );
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+    }
+
+    /**
+     * @param command name of the Pax-Construct command
+     * @param key single character option
+     * @return name of the goal parameter
+     * @throws IOException
+     */
+    private static String getOptionName( String command, String key )
+        throws IOException
+    {
+        Map optionNames;
+        synchronized( OPTION_NAMES )
+        {
+            optionNames = (Map) OPTION_NAMES.get( command );
+            if( null == optionNames )
+            {
+                optionNames = readOptionNames( command );
+                OPTION_NAMES.put( command, optionNames );
+            }
+        }
+
+        String name = (String) optionNames.get( key );
+        if( null == name )
+        {
+            throw new IOException( "Unknown option -" + key + " for pax-" + command );
+        }
+
+        return name;
+    }
+
+    /**
+     * @param command name of the Pax-Construct command
+     * @return map of single character options to goal parameters
+     * @throws IOException
+     */
+    private static Map readOptionNames( String command )
+        throws IOException
+    {
+        InputStream in = PaxScriptImpl.class.getResourceAsStream( "/scripts/commands/" + command );
+        if( null == in )
+        {
+            throw new IOException( "Missing script definition for pax-" + command );
+        }
+
+        Map optionNames = new HashMap();
+        try
+        {
+            Matcher matcher = OPTION_PATTERN.matcher( IOUtil.toString( in ) );
+            while( matcher.find() )
+            {
+                optionNames.put( matcher.group( 1 ), matcher.group( 2 ) );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        return optionNames;
+    }
+
+    /**
+     * @param call replayed command
+     * @param name parameter name
+     * @param value parameter value
+     */
+    private static void addSetting( Xpp3Dom call, String name, String value )
+    {
+        Xpp3Dom setting = new Xpp3Dom( name );
+        setting.setValue( value );
+        call.addChild( setting );
+    }
+
+    /**
+     * Group sorted commands into batches, where commands in the same batch don't depend on each other
+     * 
+     * @param commands sorted sequence of commands
+     * @return sequence of command batches
+     */
+    private static List scheduleBatches( List commands )
+    {
+        List batches = new ArrayList();
+        int[] batchIndex = new int[commands.size()];
+
+        for( int i = 0; i < batchIndex.length; i++ )
+        {
+            PaxCommand command = (PaxCommand) commands.get( i );
+
+            // must run after any earlier command that it depends on
+            int index = 0;
+            for( int j = 0; j < i; j++ )
+            {
+                if( batchIndex[j] >= index && dependsOn( command, (PaxCommand) commands.get( j ) ) )
+                {
+                    index = batchIndex[j] + 1;
+                }
+            }
+
+            if( index == batches.size() )
+            {
+                batches.add( new ArrayList() );
+            }
+
+            ( (List) batches.get( index ) ).add( command );
+            batchIndex[i] = index;
+        }
+
+        return batches;
+    }
+
+    /**
+     * Commands in the same or nested directories may update the same POMs, or need projects created by the other
+     * command, so they cannot run at the same time. Bundle imports always run one at a time, after everything else.
+     * 
+     * @param command Pax command
+     * @param earlierCommand Pax command that comes before it in the script
+     * @return true if the command must wait for the earlier command to finish, otherwise false
+     */
+    private static boolean dependsOn( PaxCommand command, PaxCommand earlierCommand )
+    {
+        if( IMPORT_BUNDLE.equals( command.getName() ) || IMPORT_BUNDLE.equals( earlierCommand.getName() ) )
+        {
+            return true;
+        }
+
+        // target directories always use '/' and end with '/' (or are empty)
+        String dir = command.getTargetDir();
+        String earlierDir = earlierCommand.getTargetDir();
+
+        return dir.startsWith( earlierDir ) || earlierDir.startsWith( dir );
+    }
+
+    /**
+     * Write sequence of command batches to a shell script, commands in each batch are run in parallel
+     * 
+     * @param writer script writer
+     * @param batches sequence of command batches
+     * @throws IOException
+     */
+    private static void writeBatches( BufferedWriter writer, List batches )
+        throws IOException
+    {
+        if( batches.size() == 1 && ( (List) batches.get( 0 ) ).size() == 1 )
+        {
+            // keep standalone customization
+            writeCommands( writer, false, (List) batches.get( 0 ) );
+            return;
+        }
+
+        for( Iterator i = batches.iterator(); i.hasNext(); )
+        {
+            List batch = (List) i.next();
+
+            /*
+             * Maven doesn't coordinate writes to the local repository between processes, so run the first command of
+             * each kind on its own: it downloads the plugin dependencies and archetype shared by that kind of command,
+             * leaving the parallel commands to fetch only their own artifacts (such as jars being wrapped)
+             */
+            Set seenNames = new HashSet();
+            List parallelCommands = new ArrayList();
+            for( Iterator j = batch.iterator(); j.hasNext(); )
+            {
+                PaxCommand command = (PaxCommand) j.next();
+                if( seenNames.add( command.getName() ) )
+                {
+                    writer.write( formatCommand( command, false, false ) );
+                    writer.newLine();
+                }
+                else
+                {
+                    parallelCommands.add( command );
+                }
+            }
+
+            if( parallelCommands.size() == 1 )
+            {
+                writer.write( formatCommand( parallelCommands.get( 0 ), false, false ) );
+                writer.newLine();
+            }
+            else if( parallelCommands.size() > 1 )
+            {
+                for( Iterator j = parallelCommands.iterator(); j.hasNext(); )
+                {
+                    writer.write( formatCommand( j.next(), false, false ) + " &" );
+                    writer.newLine();
+                }
+                writer.write( "wait" );
+                writer.newLine();
+            }
+        }
+    }
+
     /**
      * Write script snippet
      * 
@@ -443,32 +771,46 @@ public class PaxScriptImpl
         boolean standalone = ( commands.size() == 1 );
         for( Iterator i = commands.iterator(); i.hasNext(); )
         {
-            String cmd = i.next().toString();
+            writer.write( formatCommand( i.next(), isBatchFile, standalone ) );
+            writer.newLine();
+        }
+    }
+
+    /**
+     * @param command command to format
+     * @param isBatchFile true if it's a batch file, false if it's a shell script
+     * @param standalone true if this is the only command, so it can be customized from the command line
+     * @return command text
+     */
+    private static String formatCommand( Object command, boolean isBatchFile, boolean standalone )
+    {
+        String cmd = command.toString();
+
+        if( isBatchFile )
+        {
+            // fix variable references to use %FOO% not ${FOO}
+            cmd = cmd.replaceAll( "\\$\\{([^}]*)\\}", "%$1%" );
+        }
 
+        if( standalone )
+        {
+            // allow customization
             if( isBatchFile )
             {
-                // need this in batch files
-                writer.write( "call " );
-
-                // fix variable references to use %FOO% not ${FOO}
-                cmd = cmd.replaceAll( "\\$\\{([^}]*)\\}", "%$1%" );
+                cmd = StringUtils.replace( cmd, " -- ", " %1 %2 %3 %4 %5 %6 %7 %8 %9 -- " );
             }
-
-            if( standalone )
+            else
             {
-                // allow customization
-                if( isBatchFile )
-                {
-                    cmd = StringUtils.replace( cmd, " -- ", " %1 %2 %3 %4 %5 %6 %7 %8 %9 -- " );
-                }
-                else
-                {
-                    cmd = StringUtils.replace( cmd, " -- ", " \"$@\" -- " );
-                }
+                cmd = StringUtils.replace( cmd, " -- ", " \"$@\" -- " );
             }
+        }
 
-            writer.write( cmd );
-            writer.newLine();
+        if( isBatchFile )
+        {
+            // need this in batch files
+            return "call " + cmd;
         }
+
+        return cmd;
     }
 }
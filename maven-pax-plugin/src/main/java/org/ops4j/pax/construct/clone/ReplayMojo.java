@@ -0,0 +1,408 @@
+package org.ops4j.pax.construct.clone;
+
+/*
+ * Copyright 2007 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.installer.ArtifactInstallationException;
+import org.apache.maven.artifact.installer.ArtifactInstaller;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.descriptor.Parameter;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.path.PathTranslator;
+import org.codehaus.plexus.PlexusConstants;
+import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.component.configurator.ComponentConfigurationException;
+import org.codehaus.plexus.component.configurator.ComponentConfigurator;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluationException;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
+import org.codehaus.plexus.component.repository.exception.ComponentLifecycleException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.codehaus.plexus.context.Context;
+import org.codehaus.plexus.context.ContextException;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.LoggerManager;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Contextualizable;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.ops4j.pax.construct.util.StreamFactory;
+
+/**
+ * Replays a cloned project inside a single Maven session, instead of starting a new Maven process for each command
+ * 
+ * <code><pre>
+ *   mvn pax:replay -DreplayFile=create-example.xml [-Dnoinstall]
+ * </pre></code>
+ * 
+ * @goal replay
+ * @aggregator true
+ * @requiresProject false
+ */
+public class ReplayMojo extends AbstractMojo
+    implements Contextualizable
+{
+    /**
+     * Component factory for Maven artifacts
+     * 
+     * @component
+     */
+    private ArtifactFactory m_factory;
+
+    /**
+     * Component for installing Maven artifacts
+     * 
+     * @component
+     */
+    private ArtifactInstaller m_installer;
+
+    /**
+     * The local Maven repository for the containing project.
+     * 
+     * @parameter expression="${localRepository}"
+     * @required
+     * @readonly
+     */
+    private ArtifactRepository m_localRepo;
+
+    /**
+     * The current Maven project (may be Maven super-project).
+     * 
+     * @parameter expression="${project}"
+     * @required
+     * @readonly
+     */
+    private MavenProject m_project;
+
+    /**
+     * Replay descriptor written by pax:clone, alongside the usual scripts.
+     * 
+     * @parameter expression="${replayFile}"
+     * @required
+     */
+    private File replayFile;
+
+    /**
+     * When true, skip installing the archetype fragments (same as the -noinstall script option).
+     * 
+     * @parameter expression="${noinstall}"
+     */
+    private boolean noinstall;
+
+    /**
+     * The current Maven session.
+     * 
+     * @parameter expression="${session}"
+     * @required
+     * @readonly
+     */
+    private MavenSession m_session;
+
+    /**
+     * Component for configuring the replayed mojos, the same one Maven uses for plugin goals
+     * 
+     * @component roleHint="basic"
+     */
+    private ComponentConfigurator m_configurator;
+
+    /**
+     * Component for aligning file parameters to the project directory
+     * 
+     * @component
+     */
+    private PathTranslator m_pathTranslator;
+
+    /**
+     * Component providing loggers for the expression evaluator
+     * 
+     * @component
+     */
+    private LoggerManager m_loggerManager;
+
+    /**
+     * Container used to find the mojos being replayed
+     */
+    private PlexusContainer m_container;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void contextualize( Context context )
+        throws ContextException
+    {
+        m_container = (PlexusContainer) context.get( PlexusConstants.PLEXUS_KEY );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException
+    {
+        Xpp3Dom replay = readReplayFile();
+
+        getLog().info( "Replaying " + replay.getAttribute( "title" ) );
+
+        Xpp3Dom[] fragments = replay.getChildren( "fragment" );
+        for( int i = 0; !noinstall && i < fragments.length; i++ )
+        {
+            installFragment( fragments[i] );
+        }
+
+        PluginDescriptor pluginDescriptor = (PluginDescriptor) getPluginContext().get( "pluginDescriptor" );
+
+        Xpp3Dom[] commands = replay.getChildren( "command" );
+        for( int i = 0; i < commands.length; i++ )
+        {
+            replayCommand( pluginDescriptor, commands[i] );
+        }
+    }
+
+    /**
+     * @return parsed replay descriptor
+     * @throws MojoExecutionException
+     */
+    private Xpp3Dom readReplayFile()
+        throws MojoExecutionException
+    {
+        Reader reader = null;
+        try
+        {
+            reader = StreamFactory.newXmlReader( replayFile );
+            return Xpp3DomBuilder.build( reader );
+        }
+        catch( XmlPullParserException e )
+        {
+            throw new MojoExecutionException( "Unable to parse replay descriptor " + replayFile, e );
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "I/O error reading replay descriptor " + replayFile, e );
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+    }
+
+    /**
+     * Install archetype fragment into the local repository, so the replayed commands can use it
+     * 
+     * @param fragment fragment details
+     * @throws MojoExecutionException
+     */
+    private void installFragment( Xpp3Dom fragment )
+        throws MojoExecutionException
+    {
+        String groupId = fragment.getAttribute( "groupId" );
+        String artifactId = fragment.getAttribute( "artifactId" );
+        String version = fragment.getAttribute( "version" );
+
+        // fragments are saved relative to the descriptor
+        File file = new File( replayFile.getAbsoluteFile().getParentFile(), fragment.getAttribute( "file" ) );
+        Artifact artifact = m_factory.createBuildArtifact( groupId, artifactId, version, "jar" );
+
+        try
+        {
+            m_installer.install( file, artifact, m_localRepo );
+        }
+        catch( ArtifactInstallationException e )
+        {
+            throw new MojoExecutionException( "Unable to install archetype fragment " + file, e );
+        }
+    }
+
+    /**
+     * Run a single Pax-Construct goal with the recorded settings
+     * 
+     * @param pluginDescriptor descriptor for this plugin
+     * @param command recorded command
+     * @throws MojoExecutionException
+     */
+    private void replayCommand( PluginDescriptor pluginDescriptor, Xpp3Dom command )
+        throws MojoExecutionException
+    {
+        String goal = command.getAttribute( "goal" );
+
+        MojoDescriptor mojoDescriptor = pluginDescriptor.getMojo( goal );
+        if( null == mojoDescriptor )
+        {
+            throw new MojoExecutionException( "Unknown goal " + goal + " in replay descriptor" );
+        }
+
+        Properties settings = new Properties();
+        Xpp3Dom[] options = command.getChildren();
+        for( int i = 0; i < options.length; i++ )
+        {
+            settings.setProperty( options[i].getName(), options[i].getValue() );
+        }
+
+        getLog().info( "" );
+        getLog().info( "pax:" + goal + ' ' + settings );
+
+        AbstractMojo mojo;
+        try
+        {
+            // container takes care of injecting the mojo components
+            mojo = (AbstractMojo) m_container.lookup( Mojo.ROLE, mojoDescriptor.getRoleHint() );
+        }
+        catch( ComponentLookupException e )
+        {
+            throw new MojoExecutionException( "Unable to find goal " + goal, e );
+        }
+
+        try
+        {
+            configureMojo( mojo, mojoDescriptor, settings );
+
+            mojo.setLog( getLog() );
+            mojo.setPluginContext( getPluginContext() );
+
+            mojo.execute();
+        }
+        catch( MojoFailureException e )
+        {
+            throw new MojoExecutionException( "Replay failed at pax:" + goal, e );
+        }
+        finally
+        {
+            try
+            {
+                m_container.release( mojo );
+            }
+            catch( ComponentLifecycleException e )
+            {
+                getLog().debug( "Unable to release goal " + goal );
+            }
+        }
+    }
+
+    /**
+     * Configure the mojo the same way Maven does, except recorded settings take precedence over session properties
+     * 
+     * @param mojo mojo instance
+     * @param mojoDescriptor mojo descriptor
+     * @param settings recorded settings, keyed by expression name
+     * @throws MojoExecutionException
+     */
+    private void configureMojo( AbstractMojo mojo, MojoDescriptor mojoDescriptor, Properties settings )
+        throws MojoExecutionException
+    {
+        String goal = mojoDescriptor.getGoal();
+
+        Properties properties = new Properties();
+        properties.putAll( m_session.getExecutionProperties() );
+        properties.putAll( settings );
+
+        Logger logger = m_loggerManager.getLoggerForComponent( Mojo.ROLE );
+        ExpressionEvaluator evaluator = new PluginParameterExpressionEvaluator( m_session, new MojoExecution(
+            mojoDescriptor ), m_pathTranslator, logger, m_project, properties );
+
+        checkSettings( mojoDescriptor, settings, evaluator );
+
+        try
+        {
+            m_configurator.configureComponent( mojo, mojoDescriptor.getMojoConfiguration(), evaluator,
+                mojoDescriptor.getPluginDescriptor().getClassRealm() );
+        }
+        catch( ComponentConfigurationException e )
+        {
+            throw new MojoExecutionException( "Unable to configure pax:" + goal, e );
+        }
+    }
+
+    /**
+     * Warn about settings the goal doesn't use, and fail early if a required parameter has no value
+     * 
+     * @param mojoDescriptor mojo descriptor
+     * @param settings recorded settings, keyed by expression name
+     * @param evaluator evaluates parameter expressions in this session
+     * @throws MojoExecutionException
+     */
+    private void checkSettings( MojoDescriptor mojoDescriptor, Properties settings, ExpressionEvaluator evaluator )
+        throws MojoExecutionException
+    {
+        String goal = mojoDescriptor.getGoal();
+
+        Properties unusedSettings = new Properties();
+        unusedSettings.putAll( settings );
+
+        for( Iterator i = mojoDescriptor.getParameters().iterator(); i.hasNext(); )
+        {
+            Parameter parameter = (Parameter) i.next();
+
+            String expression = parameter.getExpression();
+            if( null != expression && expression.startsWith( "${" ) && expression.endsWith( "}" ) )
+            {
+                // settings are recorded using the expression name, not the field name
+                unusedSettings.remove( expression.substring( 2, expression.length() - 1 ) );
+            }
+
+            if( parameter.isRequired() && null == evaluate( evaluator, expression )
+                && null == evaluate( evaluator, parameter.getDefaultValue() ) )
+            {
+                throw new MojoExecutionException( "Missing required setting " + parameter.getName() + " for pax:"
+                    + goal );
+            }
+        }
+
+        for( Iterator i = unusedSettings.keySet().iterator(); i.hasNext(); )
+        {
+            getLog().warn( "Ignoring unknown setting " + i.next() + " for pax:" + goal );
+        }
+    }
+
+    /**
+     * @param evaluator evaluates parameter expressions in this session
+     * @param expression parameter expression or default value, may be null
+     * @return evaluated value, null if it has no value
+     * @throws MojoExecutionException
+     */
+    private static Object evaluate( ExpressionEvaluator evaluator, String expression )
+        throws MojoExecutionException
+    {
+        if( null == expression )
+        {
+            return null;
+        }
+
+        try
+        {
+            return evaluator.evaluate( expression );
+        }
+        catch( ExpressionEvaluationException e )
+        {
+            throw new MojoExecutionException( "Unable to evaluate " + expression, e );
+        }
+    }
+}
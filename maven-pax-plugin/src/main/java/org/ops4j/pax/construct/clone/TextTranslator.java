@@ -0,0 +1,371 @@
+package org.ops4j.pax.construct.clone;
+
+/*
+ * Copyright 2007 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Streaming multi-token substitution engine, based on an Aho-Corasick automaton. All mappings are applied in a single
+ * left-to-right scan: when tokens overlap the leftmost match wins, followed by the longest token starting there. Unlike
+ * successive replaces, replacement text is never re-scanned, so the order of mappings doesn't matter.
+ */
+public class TextTranslator
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Root of the token trie
+     */
+    private final Node m_root;
+
+    /**
+     * Length of the longest token
+     */
+    private int m_maxTokenLength;
+
+    /**
+     * True when the failure links need to be recalculated
+     */
+    private boolean m_dirty;
+
+    /**
+     * Current mappings, sorted by token
+     */
+    private final Map m_mappings;
+
+    /**
+     * Single state in the automaton
+     */
+    private static final class Node
+    {
+        /**
+         * Maps the next character to the following state
+         */
+        private final Map m_children = new HashMap();
+
+        /**
+         * Length of the text that leads to this state
+         */
+        private final int m_depth;
+
+        /**
+         * Longest proper suffix that is also a state
+         */
+        private Node m_fail;
+
+        /**
+         * Nearest state along the failure chain that completes a token (may be this state)
+         */
+        private Node m_match;
+
+        /**
+         * Replacement text, non-null when this state completes a token
+         */
+        private String m_replacement;
+
+        /**
+         * Compact copy of the child transitions, used while scanning
+         */
+        private char[] m_keys;
+
+        /**
+         * States matching the compact transition keys
+         */
+        private Node[] m_states;
+
+        /**
+         * @param depth length of the text that leads to this state
+         */
+        Node( int depth )
+        {
+            m_depth = depth;
+        }
+
+        /**
+         * @param c next character
+         * @return following state, null if there is none
+         */
+        Node getChild( char c )
+        {
+            return (Node) m_children.get( new Character( c ) );
+        }
+
+        /**
+         * Copy the child transitions into arrays, which are much faster to search than boxed map keys
+         */
+        void compact()
+        {
+            m_keys = new char[m_children.size()];
+            m_states = new Node[m_children.size()];
+
+            int n = 0;
+            for( Iterator i = m_children.entrySet().iterator(); i.hasNext(); n++ )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                m_keys[n] = ( (Character) entry.getKey() ).charValue();
+                m_states[n] = (Node) entry.getValue();
+            }
+        }
+
+        /**
+         * @param c next character
+         * @return following state, null if there is none
+         */
+        Node getCompactChild( char c )
+        {
+            for( int i = 0; i < m_keys.length; i++ )
+            {
+                if( m_keys[i] == c )
+                {
+                    return m_states[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Create a new translator with no tokens
+     */
+    public TextTranslator()
+    {
+        m_root = new Node( 0 );
+        m_mappings = new TreeMap();
+    }
+
+    /**
+     * @param token text to be replaced, ignored if null or empty
+     * @param replacement replacement text (replaces any previous mapping for the same token)
+     */
+    public void addMapping( String token, String replacement )
+    {
+        if( null == token || token.length() == 0 )
+        {
+            return;
+        }
+
+        Node node = m_root;
+        for( int i = 0; i < token.length(); i++ )
+        {
+            Node child = node.getChild( token.charAt( i ) );
+            if( null == child )
+            {
+                child = new Node( i + 1 );
+                node.m_children.put( new Character( token.charAt( i ) ), child );
+            }
+            node = child;
+        }
+
+        node.m_replacement = replacement;
+        m_mappings.put( token, replacement );
+
+        m_maxTokenLength = Math.max( m_maxTokenLength, token.length() );
+        m_dirty = true;
+    }
+
+    /**
+     * @return read-only view of the current mappings, sorted by token
+     */
+    public Map getMappings()
+    {
+        return Collections.unmodifiableMap( m_mappings );
+    }
+
+    /**
+     * Calculate failure and match links using a breadth-first walk of the trie
+     */
+    private void buildLinks()
+    {
+        List queue = new ArrayList();
+
+        m_root.m_fail = m_root;
+        m_root.m_match = null;
+        queue.add( m_root );
+
+        for( int n = 0; n < queue.size(); n++ )
+        {
+            Node node = (Node) queue.get( n );
+            node.compact();
+
+            for( Iterator i = node.m_children.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                Node child = (Node) entry.getValue();
+
+                if( node == m_root )
+                {
+                    child.m_fail = m_root;
+                }
+                else
+                {
+                    child.m_fail = step( node.m_fail, ( (Character) entry.getKey() ).charValue() );
+                }
+
+                if( null != child.m_replacement )
+                {
+                    child.m_match = child;
+                }
+                else
+                {
+                    child.m_match = child.m_fail.m_match;
+                }
+
+                queue.add( child );
+            }
+        }
+
+        m_dirty = false;
+    }
+
+    /**
+     * @param state current state
+     * @param c next character
+     * @return the following state
+     */
+    private Node step( Node state, char c )
+    {
+        for( Node node = state; true; node = node.m_fail )
+        {
+            Node child = node.getCompactChild( c );
+            if( null != child )
+            {
+                return child;
+            }
+            else if( node == m_root )
+            {
+                return m_root;
+            }
+        }
+    }
+
+    /**
+     * Copy text from the reader to the writer, replacing tokens as they are found
+     * 
+     * @param in text source
+     * @param out text destination
+     * @throws IOException
+     */
+    public void translate( Reader in, Writer out )
+        throws IOException
+    {
+        if( m_dirty )
+        {
+            buildLinks();
+        }
+
+        // pending text never exceeds the longest token, so this always leaves room to make progress
+        char[] buf = new char[BUFFER_SIZE + m_maxTokenLength];
+        int end = 0;
+
+        int copied = 0; // text before this has been written out
+        int next = 0; // next character to scan
+
+        Node state = m_root;
+        Node candidate = null; // best match found so far, not yet written out
+        int candidateStart = 0;
+
+        boolean eof = false;
+        while( true )
+        {
+            while( next < end )
+            {
+                state = step( state, buf[next++] );
+
+                // longest token ending here has the earliest start
+                Node match = state.m_match;
+                if( null != match )
+                {
+                    int start = next - match.m_depth;
+                    if( null == candidate || start < candidateStart
+                        || ( start == candidateStart && match.m_depth > candidate.m_depth ) )
+                    {
+                        candidate = match;
+                        candidateStart = start;
+                    }
+                }
+
+                // accept the candidate once no other match can start at or before it
+                if( null != candidate && next - state.m_depth > candidateStart )
+                {
+                    out.write( buf, copied, candidateStart - copied );
+                    out.write( candidate.m_replacement );
+
+                    // restart scan after the replaced token
+                    copied = candidateStart + candidate.m_depth;
+                    next = copied;
+
+                    state = m_root;
+                    candidate = null;
+                }
+            }
+
+            if( eof )
+            {
+                if( null == candidate )
+                {
+                    out.write( buf, copied, end - copied );
+                    return;
+                }
+
+                // no more input, so accept the candidate and rescan what follows it
+                out.write( buf, copied, candidateStart - copied );
+                out.write( candidate.m_replacement );
+
+                copied = candidateStart + candidate.m_depth;
+                next = copied;
+
+                state = m_root;
+                candidate = null;
+
+                continue;
+            }
+
+            // write out text that can no longer be part of a match (any candidate starts at or after this point)
+            int safe = next - state.m_depth;
+            out.write( buf, copied, safe - copied );
+
+            // shift pending text to the front and refill
+            System.arraycopy( buf, safe, buf, 0, end - safe );
+            end -= safe;
+            next -= safe;
+            candidateStart -= safe;
+            copied = 0;
+
+            while( !eof && end < buf.length )
+            {
+                int n = in.read( buf, end, buf.length - end );
+                if( n < 0 )
+                {
+                    eof = true;
+                }
+                else
+                {
+                    end += n;
+                }
+            }
+        }
+    }
+}
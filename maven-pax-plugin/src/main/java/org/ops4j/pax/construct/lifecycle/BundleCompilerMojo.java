@@ -17,7 +17,14 @@ package org.ops4j.pax.construct.lifecycle;
  */
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.AbstractCompilerMojo;
@@ -25,8 +32,11 @@ import org.apache.maven.plugin.CompilationFailureException;
 import org.apache.maven.plugin.CompilerMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.ops4j.pax.construct.util.ClassPathState;
 import org.ops4j.pax.construct.util.DirUtils;
+import org.ops4j.pax.construct.util.JarFilePool;
 import org.ops4j.pax.construct.util.ReflectMojo;
 
 /**
@@ -48,16 +58,42 @@ public class BundleCompilerMojo extends CompilerMojo
      */
     private MavenProject m_project;
 
+    /**
+     * When true, also recompile sources that use packages from classpath entries whose content has changed since the
+     * last successful compile (the usual check only looks for modified sources). This is a best-effort check based on
+     * the packages each compiled class refers to: it can't see compile-time constants inlined from a changed entry,
+     * or a new class in a changed entry that makes a wildcard import ambiguous. Adding a classpath entry always
+     * recompiles everything. Use a clean build when in doubt.
+     * 
+     * @parameter expression="${incremental}" default-value="false"
+     */
+    private boolean incremental;
+
+    /**
+     * Current state of the compilation classpath, saved once compilation succeeds
+     */
+    private ClassPathState m_classPathState;
+
+    /**
+     * Compilation classpath with any embedded jars expanded, calculated on first use
+     */
+    private List m_expandedClassPath;
+
     /**
      * {@inheritDoc}
      */
     protected List getClasspathElements()
     {
-        File outputDir = getOutputDirectory();
-        List classpath = super.getClasspathElements();
-        File tempDir = new File( outputDir.getParent(), "pax-compiler" );
+        if( null == m_expandedClassPath )
+        {
+            File outputDir = getOutputDirectory();
+            List classpath = super.getClasspathElements();
+            File tempDir = new File( outputDir.getParent(), "pax-compiler" );
+
+            m_expandedClassPath = DirUtils.expandOSGiClassPath( outputDir, classpath, tempDir );
+        }
 
-        return DirUtils.expandOSGiClassPath( outputDir, classpath, tempDir );
+        return m_expandedClassPath;
     }
 
     /**
@@ -71,6 +107,11 @@ public class BundleCompilerMojo extends CompilerMojo
 
         try
         {
+            if( incremental )
+            {
+                removeAffectedClasses( getOutputDirectory(), getClasspathElements() );
+            }
+
             super.execute();
         }
         catch( CompilationFailureException e )
@@ -80,6 +121,231 @@ public class BundleCompilerMojo extends CompilerMojo
 
             throw e;
         }
+        catch( MojoExecutionException e )
+        {
+            SqueakyCleanMojo.recoverMetaData( this );
+
+            throw e;
+        }
+        finally
+        {
+            JarFilePool.closeAll();
+        }
+
+        saveClassPathState();
+    }
+
+    /**
+     * @return file holding the classpath state from the last successful compile
+     */
+    private File getStateFile()
+    {
+        return new File( getOutputDirectory().getParent(), "pax-compiler.state" );
+    }
+
+    /**
+     * Remove compiled classes that use packages from changed classpath entries, so the compiler treats their sources as
+     * stale and recompiles them
+     * 
+     * @param outputDir build output directory
+     * @param classpath expanded compilation classpath
+     */
+    private void removeAffectedClasses( File outputDir, List classpath )
+    {
+        List dependencies = new ArrayList( classpath );
+        dependencies.remove( outputDir.getPath() );
+
+        ClassPathState previousState = ClassPathState.load( getStateFile() );
+
+        try
+        {
+            // unchanged jars keep their previous digest, rather than being read again
+            m_classPathState = ClassPathState.scan( dependencies, previousState );
+        }
+        catch( IOException e )
+        {
+            getLog().warn( "Unable to scan compilation classpath, skipping incremental check" );
+            getStateFile().delete();
+            return;
+        }
+
+        if( null == previousState || !outputDir.isDirectory() )
+        {
+            return;
+        }
+
+        Set changedPackages = m_classPathState.getChangedPackages( previousState );
+        if( changedPackages.isEmpty() )
+        {
+            return;
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner();
+
+        scanner.setIncludes( new String[]
+        {
+            "**/*.class"
+        } );
+
+        scanner.setBasedir( outputDir );
+        scanner.scan();
+
+        String[] classFiles = scanner.getIncludedFiles();
+
+        // a new entry can shadow classes picked up through wildcard imports, which can't be seen in the bytecode
+        boolean recompileAll = m_classPathState.hasNewEntries( previousState );
+
+        Set stalePackages = new HashSet( changedPackages );
+        Map referencedPackages = new HashMap();
+        Set staleClasses = new HashSet();
+        Set staleSources = new HashSet();
+
+        // repeat until nothing else is affected, so classes that only use other stale project classes are included
+        for( boolean found = true; found && !recompileAll; )
+        {
+            found = false;
+            for( int i = 0; i < classFiles.length && !recompileAll; i++ )
+            {
+                if( staleClasses.contains( classFiles[i] )
+                    || !usesChangedPackages( new File( outputDir, classFiles[i] ), stalePackages, referencedPackages ) )
+                {
+                    continue;
+                }
+
+                staleClasses.add( classFiles[i] );
+                stalePackages.add( getPackage( classFiles[i] ) );
+                found = true;
+
+                String sourcePath = getSourcePath( classFiles[i] );
+                if( null == findSource( sourcePath ) )
+                {
+                    // can't tell which source this class came from
+                    recompileAll = true;
+                }
+
+                staleSources.add( sourcePath );
+            }
+        }
+
+        for( int i = 0; i < classFiles.length; i++ )
+        {
+            String sourcePath = getSourcePath( classFiles[i] );
+            if( ( recompileAll || staleSources.contains( sourcePath ) ) && null != findSource( sourcePath ) )
+            {
+                new File( outputDir, classFiles[i] ).delete();
+            }
+        }
+
+        if( recompileAll )
+        {
+            getLog().info( "Recompiling all sources due to classpath changes" );
+        }
+        else
+        {
+            getLog().info( "Recompiling " + staleSources.size() + " sources affected by classpath changes" );
+        }
+    }
+
+    /**
+     * @param classFile compiled class
+     * @param changedPackages packages from changed classpath entries
+     * @param referencedPackages cache of packages used by each class, so each class file is only read once
+     * @return true if the class uses any of the changed packages, or can't be read
+     */
+    private static boolean usesChangedPackages( File classFile, Set changedPackages, Map referencedPackages )
+    {
+        if( !referencedPackages.containsKey( classFile ) )
+        {
+            try
+            {
+                referencedPackages.put( classFile, ClassPathState.getReferencedPackages( classFile ) );
+            }
+            catch( IOException e )
+            {
+                referencedPackages.put( classFile, null );
+            }
+        }
+
+        Set packages = (Set) referencedPackages.get( classFile );
+        if( null == packages )
+        {
+            return true;
+        }
+
+        for( Iterator i = packages.iterator(); i.hasNext(); )
+        {
+            if( changedPackages.contains( i.next() ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param classPath relative path of a compiled class
+     * @return package of the class, using '/' separators
+     */
+    private static String getPackage( String classPath )
+    {
+        String name = classPath.replace( File.separatorChar, '/' );
+        int slash = name.lastIndexOf( '/' );
+
+        return slash > 0 ? name.substring( 0, slash ) : "";
+    }
+
+    /**
+     * @param classPath relative path of a compiled class
+     * @return relative path of the source that declares the top-level class
+     */
+    private static String getSourcePath( String classPath )
+    {
+        String name = classPath.substring( 0, classPath.length() - ".class".length() );
+
+        // nested classes live in the same source as their top-level class
+        int nameIndex = name.lastIndexOf( File.separatorChar ) + 1;
+        int nested = name.indexOf( '$', nameIndex );
+        if( nested > nameIndex )
+        {
+            name = name.substring( 0, nested );
+        }
+
+        return name + ".java";
+    }
+
+    /**
+     * @param sourcePath relative source path
+     * @return the source file, null if it isn't in any of the source roots
+     */
+    private File findSource( String sourcePath )
+    {
+        for( Iterator i = getCompileSourceRoots().iterator(); i.hasNext(); )
+        {
+            File source = new File( (String) i.next(), sourcePath );
+            if( source.isFile() )
+            {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Save the current classpath state, so the next incremental compile knows what has changed
+     */
+    private void saveClassPathState()
+    {
+        if( null != m_classPathState )
+        {
+            try
+            {
+                m_classPathState.save( getStateFile() );
+            }
+            catch( IOException e )
+            {
+                getLog().warn( "Unable to save compilation classpath state" );
+            }
+        }
     }
 
     /**
@@ -74,6 +74,12 @@ public class BundleTestCompilerMojo extends TestCompilerMojo
             // recover cleaned metadata on failure
             SqueakyCleanMojo.recoverMetaData( this );
 
+            throw e;
+        }
+        catch( MojoExecutionException e )
+        {
+            SqueakyCleanMojo.recoverMetaData( this );
+
             throw e;
         }
     }
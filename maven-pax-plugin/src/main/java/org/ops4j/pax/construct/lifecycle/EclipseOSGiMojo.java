@@ -24,16 +24,20 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
-import java.util.regex.Pattern;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.eclipse.EclipsePlugin;
@@ -56,11 +60,14 @@ import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
 import org.codehaus.plexus.util.xml.Xpp3DomWriter;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.ops4j.pax.construct.util.DigestUtils;
 import org.ops4j.pax.construct.util.DirUtils;
-import org.ops4j.pax.construct.util.DirUtils.EntryFilter;
+import org.ops4j.pax.construct.util.DirUtils.EntryMapper;
+import org.ops4j.pax.construct.util.JarFilePool;
 import org.ops4j.pax.construct.util.PomUtils;
 import org.ops4j.pax.construct.util.ReflectMojo;
 import org.ops4j.pax.construct.util.StreamFactory;
+import org.ops4j.pax.construct.util.TaskRunner;
 
 /**
  * Extends <a href="http://maven.apache.org/plugins/maven-eclipse-plugin/eclipse-mojo.html">EclipsePlugin</a> to
@@ -75,6 +82,30 @@ import org.ops4j.pax.construct.util.StreamFactory;
  */
 public class EclipseOSGiMojo extends EclipsePlugin
 {
+    /**
+     * EclipsePlugin settings that are changed or filled in while generating files for a project
+     */
+    private static final String[] PROJECT_SETTINGS =
+    {
+        "pde", "useProjectReferences", "wtpversion", "classpathContainers", "projectnatures", "buildcommands"
+    };
+
+    /**
+     * EclipsePlugin settings that affect the generated files, compared when deciding if they are up to date
+     */
+    private static final String[] DIGEST_SETTINGS =
+    {
+        "pde", "useProjectReferences", "wtpversion", "classpathContainers", "projectnatures"
+    };
+
+    /**
+     * Generated files and folders, relative to the project; those present after generation must still be there
+     */
+    private static final String[] GENERATED_OUTPUTS =
+    {
+        ".project", ".classpath", "META-INF/MANIFEST.MF", "build.properties", "target/pax-eclipse"
+    };
+
     /**
      * Component factory for Maven projects
      * 
@@ -103,6 +134,30 @@ public class EclipseOSGiMojo extends EclipsePlugin
      */
     private String fixDependencies;
 
+    /**
+     * Number of threads used to unpack imported bundles. Bundles are still downloaded one at a time, and their Eclipse
+     * files are generated in order once everything has been unpacked.
+     * 
+     * @parameter expression="${threads}" default-value="1"
+     */
+    private int threads;
+
+    /**
+     * When true, regenerate Eclipse files for bundle projects even if the bundle, POM and dependencies haven't changed.
+     * 
+     * @parameter expression="${overwrite}"
+     */
+    private boolean overwrite;
+
+    /**
+     * The version of the currently executing plugin.
+     * 
+     * @parameter default-value="${plugin.version}"
+     * @required
+     * @readonly
+     */
+    private String pluginVersion;
+
     /**
      * Provide access to the private fields of the Eclipse mojo
      */
@@ -118,6 +173,46 @@ public class EclipseOSGiMojo extends EclipsePlugin
      */
     private List m_embeddableDependencies;
 
+    /**
+     * Maps artifactIds of the embeddable dependencies to their earliest position in the list
+     */
+    private Map m_embeddableIndex;
+
+    /**
+     * Ids of imported bundles that already have Eclipse files, only used when generating a whole workspace
+     */
+    private Set m_importedBundleIds;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException,
+        MojoFailureException
+    {
+        try
+        {
+            super.execute();
+        }
+        catch( MojoExecutionException e )
+        {
+            // put back any metadata removed by pax:clean earlier in this session
+            SqueakyCleanMojo.recoverMetaData( this );
+
+            throw e;
+        }
+        catch( MojoFailureException e )
+        {
+            SqueakyCleanMojo.recoverMetaData( this );
+
+            throw e;
+        }
+        finally
+        {
+            JarFilePool.closeAll();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -161,6 +256,61 @@ public class EclipseOSGiMojo extends EclipsePlugin
         return super.setup();
     }
 
+    /**
+     * Generate Eclipse files for several projects in one pass, so imported bundles shared between provisioning POMs
+     * are only fetched and generated once
+     * 
+     * @param projects Maven projects
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    protected void generateWorkspace( List projects )
+        throws MojoExecutionException,
+        MojoFailureException
+    {
+        if( null == m_eclipseMojo )
+        {
+            m_eclipseMojo = new ReflectMojo( this, EclipsePlugin.class );
+        }
+
+        // remember the original settings, as each project may change them (setup only fills in missing defaults)
+        Map settings = new HashMap();
+        for( int i = 0; i < PROJECT_SETTINGS.length; i++ )
+        {
+            settings.put( PROJECT_SETTINGS[i], m_eclipseMojo.getField( PROJECT_SETTINGS[i] ) );
+        }
+
+        m_importedBundleIds = new HashSet();
+
+        for( Iterator i = projects.iterator(); i.hasNext(); )
+        {
+            MavenProject workspaceProject = (MavenProject) i.next();
+
+            m_provisionProject = null;
+            for( int n = 0; n < PROJECT_SETTINGS.length; n++ )
+            {
+                Object value = settings.get( PROJECT_SETTINGS[n] );
+                if( value instanceof List )
+                {
+                    // lists are updated in place, so give each project its own copy
+                    value = new ArrayList( (List) value );
+                }
+                m_eclipseMojo.setField( PROJECT_SETTINGS[n], value );
+            }
+            setResolveDependencies( true );
+
+            setExecutedProject( workspaceProject );
+            setProject( workspaceProject );
+
+            // these are normally injected from the current project
+            setBuildOutputDirectory( new File( workspaceProject.getBuild().getOutputDirectory() ) );
+            setEclipseProjectDir( workspaceProject.getBasedir() );
+
+            getLog().info( "Generating Eclipse files for project " + workspaceProject.getId() );
+            super.execute();
+        }
+    }
+
     /**
      * Enable PDE support
      */
@@ -196,6 +346,7 @@ public class EclipseOSGiMojo extends EclipsePlugin
         else
         {
             m_embeddableDependencies = new ArrayList();
+            m_embeddableIndex = null;
 
             if( null == m_provisionProject )
             {
@@ -219,6 +370,15 @@ public class EclipseOSGiMojo extends EclipsePlugin
     private void writeBundleConfiguration( IdeDependency[] deps )
         throws MojoExecutionException
     {
+        File bundleFile = getBundleFile( executedProject );
+
+        String digest = digestBundleConfiguration( bundleFile, deps );
+        if( isUpToDate( digest ) )
+        {
+            getLog().info( "Eclipse files are up to date for " + executedProject.getId() );
+            return;
+        }
+
         for( int i = 0; i < deps.length; i++ )
         {
             if( deps[i].isAddedToClasspath() )
@@ -249,9 +409,178 @@ public class EclipseOSGiMojo extends EclipsePlugin
         /*
          * copy bundle manifest to where PDE expects it, but tweak it to fix embedded paths
          */
-        refactorForEclipse( getBundleFile( executedProject ) );
+        refactorForEclipse( bundleFile );
 
         writeAdditionalConfig();
+
+        saveDigest( digest );
+    }
+
+    /**
+     * Calculate a digest of everything that goes into the Eclipse files for a bundle project
+     * 
+     * @param bundleFile the packaged bundle
+     * @param deps resolved project dependencies
+     * @return hex encoded digest, null if it couldn't be calculated
+     */
+    private String digestBundleConfiguration( File bundleFile, IdeDependency[] deps )
+    {
+        if( null == bundleFile || !bundleFile.exists() )
+        {
+            return null;
+        }
+
+        MessageDigest digest;
+        try
+        {
+            digest = DigestUtils.newDigest();
+
+            DigestUtils.digestEntry( digest, "bundle", bundleFile );
+            DigestUtils.digestEntry( digest, "pom.xml", executedProject.getFile() );
+        }
+        catch( IOException e )
+        {
+            getLog().debug( "Unable to digest bundle " + bundleFile );
+            return null;
+        }
+
+        StringBuffer settings = new StringBuffer();
+        settings.append( pluginVersion ).append( ':' ).append( fixDependencies );
+        for( int i = 0; i < DIGEST_SETTINGS.length; i++ )
+        {
+            settings.append( '\n' ).append( DIGEST_SETTINGS[i] ).append( '=' );
+            settings.append( m_eclipseMojo.getField( DIGEST_SETTINGS[i] ) );
+        }
+
+        // plugin configuration from the effective POM, so changes in parent POMs are also noticed
+        for( Iterator i = executedProject.getBuildPlugins().iterator(); i.hasNext(); )
+        {
+            Plugin plugin = (Plugin) i.next();
+            if( "maven-eclipse-plugin".equals( plugin.getArtifactId() )
+                || "maven-pax-plugin".equals( plugin.getArtifactId() ) )
+            {
+                settings.append( '\n' ).append( plugin.getKey() ).append( ':' ).append( plugin.getVersion() );
+                settings.append( '\n' ).append( plugin.getConfiguration() );
+            }
+        }
+
+        for( int i = 0; i < deps.length; i++ )
+        {
+            settings.append( '\n' );
+            settings.append( deps[i].getGroupId() ).append( ':' ).append( deps[i].getArtifactId() );
+            settings.append( ':' ).append( deps[i].getVersion() ).append( ':' ).append( deps[i].getClassifier() );
+            settings.append( ':' ).append( deps[i].getType() ).append( ':' ).append( deps[i].getEclipseProjectName() );
+            settings.append( ':' ).append( deps[i].isReferencedProject() ).append( deps[i].isAddedToClasspath() );
+            settings.append( deps[i].isTestDependency() ).append( deps[i].isProvided() );
+            settings.append( ':' ).append( deps[i].getFile() ).append( ':' ).append( deps[i].getSourceAttachment() );
+            settings.append( ':' ).append( deps[i].getJavadocAttachment() );
+        }
+
+        DigestUtils.digestText( digest, settings.toString() );
+
+        return DigestUtils.toHex( digest.digest() );
+    }
+
+    /**
+     * @return file holding the digest of the last generated Eclipse files
+     */
+    private File getDigestFile()
+    {
+        return new File( executedProject.getBuild().getDirectory(), "pax-eclipse.md5" );
+    }
+
+    /**
+     * Check if the Eclipse files from the previous run are still valid, otherwise remove the old digest
+     * 
+     * @param digest digest of the current bundle configuration, may be null
+     * @return true if the existing Eclipse files can be kept, otherwise false
+     */
+    private boolean isUpToDate( String digest )
+    {
+        File digestFile = getDigestFile();
+
+        try
+        {
+            if( !overwrite && null != digest && digestFile.exists() )
+            {
+                // first line is the digest, followed by the outputs that were generated alongside it
+                String[] lines = FileUtils.fileRead( digestFile ).trim().split( "\\s*\\n\\s*" );
+                if( digest.equals( lines[0] ) && hasOutputs( lines ) )
+                {
+                    return true;
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            getLog().debug( "Unable to read " + digestFile );
+        }
+
+        // in case generation fails part way
+        digestFile.delete();
+
+        return false;
+    }
+
+    /**
+     * @param lines digest file content, outputs start from the second line
+     * @return true if the Eclipse metadata is in place and all the recorded outputs still exist, otherwise false
+     */
+    private boolean hasOutputs( String[] lines )
+    {
+        File baseDir = executedProject.getBasedir();
+
+        // always needed, even when the digest file comes from a version that did not list its outputs
+        if( !new File( baseDir, ".project" ).exists() || !new File( baseDir, ".classpath" ).exists()
+            || !new File( baseDir, "META-INF/MANIFEST.MF" ).exists() )
+        {
+            return false;
+        }
+
+        for( int i = 1; i < lines.length; i++ )
+        {
+            if( !new File( baseDir, lines[i] ).exists() )
+            {
+                getLog().debug( "Missing generated output " + lines[i] );
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Record the digest along with the outputs generated for it
+     * 
+     * @param digest digest of the current bundle configuration, may be null
+     */
+    private void saveDigest( String digest )
+    {
+        if( null == digest )
+        {
+            return;
+        }
+
+        File digestFile = getDigestFile();
+
+        StringBuffer buf = new StringBuffer( digest );
+        for( int i = 0; i < GENERATED_OUTPUTS.length; i++ )
+        {
+            if( new File( executedProject.getBasedir(), GENERATED_OUTPUTS[i] ).exists() )
+            {
+                buf.append( '\n' ).append( GENERATED_OUTPUTS[i] );
+            }
+        }
+
+        try
+        {
+            digestFile.getParentFile().mkdirs();
+            FileUtils.fileWrite( digestFile.getPath(), buf.toString() );
+        }
+        catch( IOException e )
+        {
+            getLog().warn( "Unable to write " + digestFile );
+        }
     }
 
     /**
@@ -376,39 +705,96 @@ public class EclipseOSGiMojo extends EclipsePlugin
     }
 
     /**
-     * Select files for unpacking that don't exist locally under target/classes
+     * Map metadata straight to the project base directory, and other content referenced by the Bundle-ClassPath to the
+     * unpack directory (ignoring local content that already exists under target/classes)
      */
-    private static class IncludedContentFilter
-        implements EntryFilter
+    private static class EclipseContentMapper
+        implements EntryMapper
     {
+        private final File m_baseDir;
+        private final File m_unpackDir;
         private final File m_outputDir;
 
         /**
+         * Embedded Bundle-ClassPath entries, not including "."
+         */
+        private final List m_embeddedPaths;
+
+        /**
+         * True if the Bundle-ClassPath includes the bundle root
+         */
+        private final boolean m_includeRoot;
+
+        /**
+         * @param baseDir project base directory
+         * @param unpackDir unpack directory
          * @param outputDir build output directory
+         * @param bundleClassPath Bundle-ClassPath attribute
          */
-        public IncludedContentFilter( File outputDir )
+        public EclipseContentMapper( File baseDir, File unpackDir, File outputDir, String bundleClassPath )
         {
+            m_baseDir = baseDir;
+            m_unpackDir = unpackDir;
             m_outputDir = outputDir;
+
+            m_embeddedPaths = new ArrayList();
+
+            boolean includeRoot = false;
+            String[] entries = bundleClassPath.split( "," );
+            for( int i = 0; i < entries.length; i++ )
+            {
+                // normalize embedded path, so it's easy to compare with entry names
+                String path = entries[i].trim().replace( '\\', '/' );
+                while( path.startsWith( "/" ) )
+                {
+                    path = path.substring( 1 );
+                }
+                while( path.endsWith( "/" ) )
+                {
+                    path = path.substring( 0, path.length() - 1 );
+                }
+
+                if( ".".equals( path ) || path.length() == 0 )
+                {
+                    includeRoot = true;
+                }
+                else
+                {
+                    m_embeddedPaths.add( path );
+                }
+            }
+
+            m_includeRoot = includeRoot;
         }
 
         /**
          * {@inheritDoc}
          */
-        public boolean accept( String name )
+        public File map( String name )
         {
-            // always select metadata folders as we may need to refactor them
-            if( name.startsWith( "META-INF" ) || name.startsWith( "OSGI-INF" ) )
+            // metadata goes where Eclipse PDE expects it
+            if( name.startsWith( "META-INF/" ) || name.startsWith( "OSGI-INF/" ) )
             {
-                return true;
+                return FileUtils.resolveFile( m_baseDir, name );
             }
-            // also select any embedded jars
-            else if( name.endsWith( ".jar" ) )
+
+            // select any embedded jars or directories
+            for( Iterator i = m_embeddedPaths.iterator(); i.hasNext(); )
             {
-                return true;
+                String path = (String) i.next();
+                if( name.equals( path ) || name.startsWith( path + '/' ) )
+                {
+                    return FileUtils.resolveFile( m_unpackDir, name );
+                }
             }
 
             // do we already have this file locally?
-            return new File( m_outputDir, name ).exists() == false;
+            if( m_includeRoot && !new File( m_outputDir, name ).exists() )
+            {
+                return FileUtils.resolveFile( m_unpackDir, name );
+            }
+
+            return null;
         }
     }
 
@@ -434,14 +820,26 @@ public class EclipseOSGiMojo extends EclipsePlugin
         }
         else
         {
-            DirUtils.unpackBundle( bundleFile, unpackDir, new IncludedContentFilter( getBuildOutputDirectory() ) );
+            try
+            {
+                // clear out any previously unpacked content
+                FileUtils.deleteDirectory( unpackDir );
+            }
+            catch( IOException e )
+            {
+                getLog().warn( "Unable to clean " + unpackDir );
+            }
 
-            moveMetadata( unpackDir, "META-INF", baseDir );
-            moveMetadata( unpackDir, "OSGI-INF", baseDir );
+            File outputDir = getBuildOutputDirectory();
+            String bundleClassPath = DirUtils.extractBundleClassPath( bundleFile );
 
-            // test to see if it's empty
-            unpackDir.delete();
+            EntryMapper mapper = new EclipseContentMapper( baseDir, unpackDir, outputDir, bundleClassPath );
+            if( !DirUtils.unpackBundle( bundleFile, mapper ) )
+            {
+                getLog().warn( "Unable to unpack bundle " + bundleFile );
+            }
 
+            // only created if there was content to unpack
             refactorManifest = unpackDir.exists();
         }
 
@@ -582,28 +980,6 @@ public class EclipseOSGiMojo extends EclipsePlugin
         return manifest;
     }
 
-    /**
-     * @param fromDir source directory
-     * @param metadata metadata folder
-     * @param toDir target directory
-     */
-    private void moveMetadata( File fromDir, String metadata, File toDir )
-    {
-        File metadataDir = new File( fromDir, metadata );
-        if( metadataDir.exists() )
-        {
-            try
-            {
-                FileUtils.copyDirectoryStructure( metadataDir, new File( toDir, metadata ) );
-                FileUtils.deleteDirectory( metadataDir );
-            }
-            catch( IOException e )
-            {
-                getLog().warn( "Unable to copy " + metadata + " contents to base directory" );
-            }
-        }
-    }
-
     /**
      * Add any embedded Bundle-ClassPath entries to the Eclipse classpath and re-attach sources/javadocs
      * 
@@ -668,22 +1044,96 @@ public class EclipseOSGiMojo extends EclipsePlugin
      */
     private File findAttachedSource( String bundleLocation, String classPathEntry )
     {
-        for( Iterator i = m_embeddableDependencies.iterator(); i.hasNext(); )
+        if( m_embeddableDependencies.isEmpty() )
         {
-            IdeDependency dependency = (IdeDependency) i.next();
+            return null;
+        }
 
-            // equivalent to '.' - source is first in list
-            if( bundleLocation.equals( classPathEntry ) )
-            {
-                return dependency.getSourceAttachment();
-            }
-            else if( Pattern.matches( "^.*[/\\\\]" + dependency.getArtifactId() + "[-.][^/\\\\]*$", classPathEntry ) )
+        // equivalent to '.' - source is first in list
+        if( bundleLocation.equals( classPathEntry ) )
+        {
+            return ( (IdeDependency) m_embeddableDependencies.get( 0 ) ).getSourceAttachment();
+        }
+
+        // only match embedded entries inside a folder
+        int nameIndex = Math.max( classPathEntry.lastIndexOf( '/' ), classPathEntry.lastIndexOf( '\\' ) ) + 1;
+        if( nameIndex <= 0 )
+        {
+            return null;
+        }
+
+        if( null == m_embeddableIndex )
+        {
+            m_embeddableIndex = indexEmbeddableDependencies( m_embeddableDependencies );
+        }
+
+        // look for an artifactId followed by '-' or '.', preferring the earliest dependency
+        int position = -1;
+        for( int i = nameIndex; i < classPathEntry.length(); i++ )
+        {
+            char c = classPathEntry.charAt( i );
+            if( '-' == c || '.' == c )
             {
-                return dependency.getSourceAttachment();
+                Integer match = (Integer) m_embeddableIndex.get( classPathEntry.substring( nameIndex, i ) );
+                if( null != match && ( position < 0 || match.intValue() < position ) )
+                {
+                    position = match.intValue();
+                }
             }
         }
 
-        return null;
+        if( position < 0 )
+        {
+            return null;
+        }
+
+        return ( (IdeDependency) m_embeddableDependencies.get( position ) ).getSourceAttachment();
+    }
+
+    /**
+     * @param dependencies list of IDE dependencies
+     * @return map of artifactId to the earliest position of that artifactId in the list
+     */
+    private static Map indexEmbeddableDependencies( List dependencies )
+    {
+        Map index = new HashMap();
+        for( int i = dependencies.size() - 1; i >= 0; i-- )
+        {
+            // walk backwards so earlier entries replace later ones
+            index.put( ( (IdeDependency) dependencies.get( i ) ).getArtifactId(), new Integer( i ) );
+        }
+        return index;
+    }
+
+    /**
+     * Imported bundle, fetched ahead of generating its Eclipse project files
+     */
+    private static final class ImportedBundle
+    {
+        /**
+         * Bundle artifact
+         */
+        private final Artifact m_artifact;
+
+        /**
+         * Local directory where the bundle is unpacked
+         */
+        private final File m_baseDir;
+
+        /**
+         * True if the bundle was downloaded
+         */
+        private boolean m_downloaded;
+
+        /**
+         * @param artifact bundle artifact
+         * @param baseDir local directory where the bundle is unpacked
+         */
+        ImportedBundle( Artifact artifact, File baseDir )
+        {
+            m_artifact = artifact;
+            m_baseDir = baseDir;
+        }
     }
 
     /**
@@ -700,6 +1150,8 @@ public class EclipseOSGiMojo extends EclipsePlugin
         m_provisionProject = getExecutedProject();
         setResolveDependencies( false );
 
+        List bundles = new ArrayList();
+
         Set artifacts = m_provisionProject.createArtifacts( artifactFactory, null, null );
         for( Iterator i = artifacts.iterator(); i.hasNext(); )
         {
@@ -709,43 +1161,108 @@ public class EclipseOSGiMojo extends EclipsePlugin
             File groupDir = new File( m_provisionProject.getBasedir(), "target/" + artifact.getGroupId() );
             File baseDir = new File( groupDir, artifact.getArtifactId() + '-' + artifact.getVersion() );
 
-            // download and unpack the bundle
-            if( !PomUtils.downloadFile( artifact, artifactResolver, remoteArtifactRepositories, localRepository ) )
+            // only need one copy of each imported bundle in the workspace
+            if( null != m_importedBundleIds && !m_importedBundleIds.add( artifact.getId() ) )
             {
-                getLog().warn( "Skipping missing bundle " + artifact );
+                getLog().info( "Already generated Eclipse project for bundle " + artifact );
                 continue;
             }
 
-            DirUtils.unpackBundle( artifact.getFile(), baseDir, null );
+            bundles.add( new ImportedBundle( artifact, baseDir ) );
+        }
 
-            // download the bundle POM and store locally
-            MavenProject dependencyProject = writeProjectPom( baseDir, artifact );
-            if( null == dependencyProject )
-            {
-                getLog().warn( "Skipping missing bundle " + artifact );
-                continue;
-            }
+        fetchImportedBundles( bundles );
 
-            dependencyProject.setArtifact( artifact );
+        for( Iterator i = bundles.iterator(); i.hasNext(); )
+        {
+            setupImportedBundle( (ImportedBundle) i.next() );
+        }
+    }
 
-            setExecutedProject( dependencyProject );
-            setProject( dependencyProject );
+    /**
+     * Download the imported bundles and unpack them, using several threads for the unpacking if requested
+     * 
+     * @param bundles imported bundles
+     * @throws MojoExecutionException
+     */
+    private void fetchImportedBundles( List bundles )
+        throws MojoExecutionException
+    {
+        TaskRunner unpacker = new TaskRunner( "eclipse", threads );
 
-            // trick Eclipse plugin to do the right thing
-            setBuildOutputDirectory( new File( baseDir, ".ignore" ) );
-            setEclipseProjectDir( baseDir );
+        for( Iterator i = bundles.iterator(); i.hasNext(); )
+        {
+            final ImportedBundle bundle = (ImportedBundle) i.next();
+            final Artifact artifact = bundle.m_artifact;
 
-            try
+            // the artifact resolver isn't known to be thread-safe, so only ever download from this thread
+            if( PomUtils.downloadFile( artifact, artifactResolver, remoteArtifactRepositories, localRepository ) )
             {
-                // call the Eclipse plugin
-                getLog().info( "Generating Eclipse project for bundle " + artifact );
-                execute();
-            }
-            catch( MojoFailureException e )
-            {
-                getLog().warn( "Problem generating Eclipse files for artifact " + artifact );
+                bundle.m_downloaded = true;
+                unpacker.add( new TaskRunner.Task()
+                {
+                    public void run()
+                    {
+                        DirUtils.unpackBundle( artifact.getFile(), bundle.m_baseDir, null );
+                    }
+                } );
             }
         }
+
+        if( unpacker.getWorkerCount() > 1 )
+        {
+            getLog().info(
+                "Unpacking " + unpacker.size() + " bundles using " + unpacker.getWorkerCount() + " threads" );
+        }
+
+        unpacker.run();
+    }
+
+    /**
+     * Generate Eclipse project files for a fetched bundle
+     * 
+     * @param bundle imported bundle
+     * @throws MojoExecutionException
+     */
+    private void setupImportedBundle( ImportedBundle bundle )
+        throws MojoExecutionException
+    {
+        Artifact artifact = bundle.m_artifact;
+        File baseDir = bundle.m_baseDir;
+
+        if( !bundle.m_downloaded )
+        {
+            getLog().warn( "Skipping missing bundle " + artifact );
+            return;
+        }
+
+        // download the bundle POM and store locally
+        MavenProject dependencyProject = writeProjectPom( baseDir, artifact );
+        if( null == dependencyProject )
+        {
+            getLog().warn( "Skipping missing bundle " + artifact );
+            return;
+        }
+
+        dependencyProject.setArtifact( artifact );
+
+        setExecutedProject( dependencyProject );
+        setProject( dependencyProject );
+
+        // trick Eclipse plugin to do the right thing
+        setBuildOutputDirectory( new File( baseDir, ".ignore" ) );
+        setEclipseProjectDir( baseDir );
+
+        try
+        {
+            // call the Eclipse plugin
+            getLog().info( "Generating Eclipse project for bundle " + artifact );
+            super.execute();
+        }
+        catch( MojoFailureException e )
+        {
+            getLog().warn( "Problem generating Eclipse files for artifact " + artifact );
+        }
     }
 
     /**
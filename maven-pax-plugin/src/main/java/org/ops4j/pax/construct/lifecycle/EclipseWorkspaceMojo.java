@@ -0,0 +1,54 @@
+package org.ops4j.pax.construct.lifecycle;
+
+/*
+ * Copyright 2007 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.ops4j.pax.construct.util.JarFilePool;
+
+/**
+ * Generates Eclipse project files for every project in the reactor in a single pass. Imported bundles that appear in
+ * more than one provisioning POM are only fetched and generated once.<br/>Accepts the same parameters as pax:eclipse.
+ * 
+ * <code><pre>
+ *   mvn pax:eclipse-workspace [-DdownloadSources] [-Dthreads=n] ...etc...
+ * </pre></code>
+ * 
+ * @extendsPlugin eclipse
+ * @extendsGoal eclipse
+ * @goal eclipse-workspace
+ * @aggregator true
+ */
+public class EclipseWorkspaceMojo extends EclipseOSGiMojo
+{
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException,
+        MojoFailureException
+    {
+        try
+        {
+            generateWorkspace( reactorProjects );
+        }
+        finally
+        {
+            JarFilePool.closeAll();
+        }
+    }
+}
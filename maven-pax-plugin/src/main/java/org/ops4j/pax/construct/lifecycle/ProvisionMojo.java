@@ -52,6 +52,7 @@ import org.apache.maven.project.artifact.InvalidDependencyVersionException;
 import org.apache.maven.settings.Mirror;
 import org.apache.maven.settings.Settings;
 import org.codehaus.plexus.util.IOUtil;
+import org.ops4j.pax.construct.util.JarFilePool;
 import org.ops4j.pax.construct.util.PomUtils;
 import org.ops4j.pax.construct.util.StreamFactory;
 
@@ -267,24 +268,31 @@ public class ProvisionMojo extends AbstractMojo
     public void execute()
         throws MojoExecutionException
     {
-        m_bundleIds = new ArrayList();
-
-        if( deployPoms != null )
+        try
         {
-            addAdditionalPoms();
-        }
+            m_bundleIds = new ArrayList();
 
-        if( m_project.getFile() != null )
-        {
-            for( Iterator i = m_reactorProjects.iterator(); i.hasNext(); )
+            if( deployPoms != null )
             {
-                addProjectBundles( (MavenProject) i.next(), false == noDependencies );
+                addAdditionalPoms();
             }
-        }
 
-        setupRuntimeHelpers();
+            if( m_project.getFile() != null )
+            {
+                for( Iterator i = m_reactorProjects.iterator(); i.hasNext(); )
+                {
+                    addProjectBundles( (MavenProject) i.next(), false == noDependencies );
+                }
+            }
+
+            setupRuntimeHelpers();
 
-        deployBundles();
+            deployBundles();
+        }
+        finally
+        {
+            JarFilePool.closeAll();
+        }
     }
 
     /**
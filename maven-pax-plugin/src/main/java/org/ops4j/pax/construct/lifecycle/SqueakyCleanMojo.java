@@ -18,14 +18,18 @@ package org.ops4j.pax.construct.lifecycle;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
-import org.apache.maven.shared.model.fileset.FileSet;
-import org.apache.maven.shared.model.fileset.util.FileSetManager;
+import org.codehaus.plexus.util.DirectoryScanner;
 import org.ops4j.pax.construct.util.CacheUtils;
 import org.ops4j.pax.construct.util.PomUtils;
+import org.ops4j.pax.construct.util.TaskRunner;
 
 /**
  * Remove generated IDE files, but support limited recovery during the same build session.<br/>So 'mvn pax:clean
@@ -38,6 +42,14 @@ import org.ops4j.pax.construct.util.PomUtils;
  */
 public class SqueakyCleanMojo extends AbstractMojo
 {
+    /**
+     * Generated Eclipse/PDE files and folders (.settings is kept)
+     */
+    private static final String[] GENERATED_PATHS =
+    {
+        "META-INF", "OSGI-INF", ".project", ".classpath"
+    };
+
     /**
      * Project base directory.
      * 
@@ -56,6 +68,14 @@ public class SqueakyCleanMojo extends AbstractMojo
      */
     private MavenProject m_project;
 
+    /**
+     * Number of threads used to delete generated files. Deleting in parallel mostly helps on network or other slow
+     * filesystems where each delete is a round-trip.
+     * 
+     * @parameter expression="${threads}" default-value="1"
+     */
+    private int threads;
+
     /**
      * {@inheritDoc}
      */
@@ -76,24 +96,94 @@ public class SqueakyCleanMojo extends AbstractMojo
         CacheUtils.pushFile( this, ".classpath", new File( m_basedir, ".classpath" ) );
         getPluginContext().put( "basedir", m_basedir.getPath() );
 
-        FileSet generatedPaxFiles = new FileSet();
-        generatedPaxFiles.setDirectory( m_basedir.getPath() );
-        generatedPaxFiles.setUseDefaultExcludes( true );
-        generatedPaxFiles.setFollowSymlinks( true );
+        List files = new ArrayList();
+        List dirs = new ArrayList();
+
+        // only walk the generated roots, not the whole project (which may contain a large target tree)
+        for( int i = 0; i < GENERATED_PATHS.length; i++ )
+        {
+            File root = new File( m_basedir, GENERATED_PATHS[i] );
+            if( root.isDirectory() )
+            {
+                collectGeneratedFiles( root, files, dirs );
+            }
+            else if( root.isFile() )
+            {
+                files.add( root );
+            }
+        }
+
+        deleteFiles( files );
+
+        // deepest folders first, folders that still hold excluded files (such as SCM metadata) will be kept
+        Collections.sort( dirs, Collections.reverseOrder() );
+        for( Iterator i = dirs.iterator(); i.hasNext(); )
+        {
+            ( (File) i.next() ).delete();
+        }
+    }
+
+    /**
+     * @param root generated folder
+     * @param files list of files to delete
+     * @param dirs list of folders to delete
+     */
+    private static void collectGeneratedFiles( File root, List files, List dirs )
+    {
+        DirectoryScanner scanner = new DirectoryScanner();
 
-        // remove Eclipse/PDE files (keep .settings)
-        generatedPaxFiles.addInclude( "META-INF/" );
-        generatedPaxFiles.addInclude( "OSGI-INF/" );
-        generatedPaxFiles.addInclude( ".project" );
-        generatedPaxFiles.addInclude( ".classpath" );
+        scanner.setBasedir( root );
+        scanner.addDefaultExcludes();
+        scanner.scan();
+
+        String[] includedFiles = scanner.getIncludedFiles();
+        for( int i = 0; i < includedFiles.length; i++ )
+        {
+            files.add( new File( root, includedFiles[i] ) );
+        }
+
+        String[] includedDirs = scanner.getIncludedDirectories();
+        for( int i = 0; i < includedDirs.length; i++ )
+        {
+            dirs.add( new File( root, includedDirs[i] ) );
+        }
+    }
+
+    /**
+     * @param files list of files to delete
+     * @throws MojoExecutionException
+     */
+    private void deleteFiles( List files )
+        throws MojoExecutionException
+    {
+        TaskRunner deleter = new TaskRunner( "clean", threads );
+        for( Iterator i = files.iterator(); i.hasNext(); )
+        {
+            final File file = (File) i.next();
+            deleter.add( new TaskRunner.Task()
+            {
+                public void run()
+                    throws IOException
+                {
+                    if( !file.delete() && file.exists() )
+                    {
+                        throw new IOException( "Unable to delete " + file );
+                    }
+                }
+            } );
+        }
 
         try
         {
-            new FileSetManager( getLog(), false ).delete( generatedPaxFiles );
+            deleter.run();
         }
-        catch( IOException e )
+        catch( MojoExecutionException e )
         {
-            throw new MojoExecutionException( "I/O error while deleting files", e );
+            if( e.getCause() instanceof IOException )
+            {
+                throw new MojoExecutionException( "I/O error while deleting files", e.getCause() );
+            }
+            throw e;
         }
     }
 
@@ -39,6 +39,7 @@ import org.apache.maven.project.ProjectBuildingException;
 import org.apache.maven.project.artifact.InvalidDependencyVersionException;
 import org.ops4j.pax.construct.util.DirUtils;
 import org.ops4j.pax.construct.util.ExcludeSystemBundlesFilter;
+import org.ops4j.pax.construct.util.JarFilePool;
 import org.ops4j.pax.construct.util.PomUtils;
 import org.ops4j.pax.construct.util.PomUtils.Pom;
 
@@ -213,31 +214,38 @@ public class ImportBundleMojo extends AbstractMojo
     public void execute()
         throws MojoExecutionException
     {
-        populateMissingFields();
+        try
+        {
+            populateMissingFields();
 
-        // Find host POMs which will receive the imported dependencies
-        m_provisionPom = DirUtils.findPom( targetDirectory, provisionId );
-        m_localBundlePom = readBundlePom( targetDirectory );
+            // Find host POMs which will receive the imported dependencies
+            m_provisionPom = DirUtils.findPom( targetDirectory, provisionId );
+            m_localBundlePom = readBundlePom( targetDirectory );
 
-        if( null == m_provisionPom && null == m_localBundlePom )
-        {
-            throw new MojoExecutionException( "Cannot execute command."
-                + " It requires a project with an existing pom.xml, but the build is not using one." );
-        }
+            if( null == m_provisionPom && null == m_localBundlePom )
+            {
+                throw new MojoExecutionException( "Cannot execute command."
+                    + " It requires a project with an existing pom.xml, but the build is not using one." );
+            }
 
-        String rootId = groupId + ':' + artifactId + ':' + version;
+            String rootId = groupId + ':' + artifactId + ':' + version;
 
-        m_candidateIds = new ArrayList();
-        m_visitedIds = new HashSet();
+            m_candidateIds = new ArrayList();
+            m_visitedIds = new HashSet();
 
-        // kickstart the import
-        excludeCandidates( exclusions );
-        scheduleCandidate( rootId );
-        importBundles( rootId );
+            // kickstart the import
+            excludeCandidates( exclusions );
+            scheduleCandidate( rootId );
+            importBundles( rootId );
 
-        // save any dependency updates
-        writeUpdatedPom( m_localBundlePom );
-        writeUpdatedPom( m_provisionPom );
+            // save any dependency updates
+            writeUpdatedPom( m_localBundlePom );
+            writeUpdatedPom( m_provisionPom );
+        }
+        finally
+        {
+            JarFilePool.closeAll();
+        }
     }
 
     /**
@@ -17,9 +17,11 @@ package org.ops4j.pax.construct.util;
  */
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.codehaus.plexus.util.IOUtil;
@@ -40,55 +42,64 @@ public final class CacheUtils
     }
 
     /**
-     * Cache a text-based file inside the plugin context
+     * Cache the raw bytes of a file in the plugin context, so it can be restored later in the same build session.
+     * Nothing is written to disk, so a later clean can't remove the cached copy and nothing is left behind when a
+     * resident build process keeps running.
      * 
      * @param mojo currently executing mojo
      * @param key unique identifier
-     * @param file text-based file
+     * @param file file to cache
      */
     public static void pushFile( AbstractMojo mojo, String key, File file )
     {
         if( file.exists() )
         {
+            InputStream input = null;
             try
             {
-                Reader input = StreamFactory.newPlatformReader( file );
-                mojo.getPluginContext().put( key, IOUtil.toString( input ) );
-                IOUtil.close( input );
+                input = new FileInputStream( file );
+                mojo.getPluginContext().put( key, IOUtil.toByteArray( input ) );
             }
             catch( IOException e )
             {
                 mojo.getLog().warn( "Unable to read file into cache: " + file );
             }
+            finally
+            {
+                IOUtil.close( input );
+            }
         }
     }
 
     /**
-     * Restore a text-based file from the plugin context
+     * Restore a previously cached file from the current build session, byte-for-byte
      * 
      * @param mojo currently executing mojo
      * @param key unique identifier
-     * @param file text-based file
+     * @param file where to restore the file
      */
     public static void pullFile( AbstractMojo mojo, String key, File file )
     {
-        String input = (String) mojo.getPluginContext().get( key );
-
-        if( input != null )
+        Object content = mojo.getPluginContext().get( key );
+        if( !( content instanceof byte[] ) )
         {
-            try
-            {
-                file.getParentFile().mkdirs();
-                file.createNewFile();
+            return;
+        }
 
-                Writer output = StreamFactory.newPlatformWriter( file );
-                IOUtil.copy( input, output );
-                IOUtil.close( output );
-            }
-            catch( IOException e )
-            {
-                mojo.getLog().warn( "Unable to write file back from cache: " + file );
-            }
+        OutputStream output = null;
+        try
+        {
+            file.getParentFile().mkdirs();
+            output = new FileOutputStream( file );
+            output.write( (byte[]) content );
+        }
+        catch( IOException e )
+        {
+            mojo.getLog().warn( "Unable to write file back from cache: " + file );
+        }
+        finally
+        {
+            IOUtil.close( output );
         }
     }
 }
@@ -0,0 +1,446 @@
+package org.ops4j.pax.construct.util;
+
+/*
+ * Copyright 2007 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Content digests of compilation classpath entries, along with the packages each entry provides. Comparing the state
+ * from one build with the next shows which packages have changed, so only sources that use them need recompiling.
+ */
+public final class ClassPathState
+{
+    /**
+     * Prefix used to save archive timestamps alongside the entries (absolute paths can't start with this)
+     */
+    private static final String STAMP_PREFIX = "stamp:";
+
+    /**
+     * Maps classpath entries to their digest and provided packages
+     */
+    private final Map m_entries;
+
+    /**
+     * Maps archive entries to their last modified time and size when they were digested
+     */
+    private final Map m_stamps;
+
+    /**
+     * @param entries map of classpath entry to "digest:package,package,..."
+     * @param stamps map of archive entry to "lastModified,length"
+     */
+    private ClassPathState( Map entries, Map stamps )
+    {
+        m_entries = entries;
+        m_stamps = stamps;
+    }
+
+    /**
+     * Calculate the current state of the given classpath
+     * 
+     * @param classpath list of classpath elements
+     * @param previous previous classpath state, may be null
+     * @return classpath state
+     * @throws IOException
+     */
+    public static ClassPathState scan( List classpath, ClassPathState previous )
+        throws IOException
+    {
+        Map entries = new TreeMap();
+        Map stamps = new TreeMap();
+
+        for( Iterator i = classpath.iterator(); i.hasNext(); )
+        {
+            File element = new File( (String) i.next() );
+
+            if( element.isFile() )
+            {
+                String stamp = element.lastModified() + "," + element.length();
+                stamps.put( element.getPath(), stamp );
+
+                // archive hasn't been touched since the last scan, so its content is assumed to be the same
+                if( null != previous && stamp.equals( previous.m_stamps.get( element.getPath() ) )
+                    && previous.m_entries.containsKey( element.getPath() ) )
+                {
+                    entries.put( element.getPath(), previous.m_entries.get( element.getPath() ) );
+                    continue;
+                }
+            }
+
+            MessageDigest digest = DigestUtils.newDigest();
+            Set packages = new TreeSet();
+
+            // missing entries are still recorded, so we notice when they appear
+            if( element.isDirectory() )
+            {
+                scanDirectory( digest, element, "", packages );
+            }
+            else if( element.isFile() )
+            {
+                DigestUtils.digestFile( digest, element );
+                scanArchive( element, packages );
+            }
+
+            StringBuffer state = new StringBuffer( DigestUtils.toHex( digest.digest() ) );
+            state.append( ':' );
+            for( Iterator j = packages.iterator(); j.hasNext(); )
+            {
+                state.append( j.next() );
+                if( j.hasNext() )
+                {
+                    state.append( ',' );
+                }
+            }
+
+            entries.put( element.getPath(), state.toString() );
+        }
+
+        return new ClassPathState( entries, stamps );
+    }
+
+    /**
+     * @param stateFile file containing a previously saved state
+     * @return saved state, null if there is none
+     */
+    public static ClassPathState load( File stateFile )
+    {
+        if( !stateFile.isFile() )
+        {
+            return null;
+        }
+
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( stateFile );
+
+            Properties properties = new Properties();
+            properties.load( in );
+
+            Map entries = new TreeMap();
+            Map stamps = new TreeMap();
+            for( Iterator i = properties.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                String key = (String) entry.getKey();
+                if( key.startsWith( STAMP_PREFIX ) )
+                {
+                    stamps.put( key.substring( STAMP_PREFIX.length() ), entry.getValue() );
+                }
+                else
+                {
+                    entries.put( key, entry.getValue() );
+                }
+            }
+
+            return new ClassPathState( entries, stamps );
+        }
+        catch( IOException e )
+        {
+            return null;
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * @param stateFile where to save the state
+     * @throws IOException
+     */
+    public void save( File stateFile )
+        throws IOException
+    {
+        Properties properties = new Properties();
+        properties.putAll( m_entries );
+        for( Iterator i = m_stamps.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            properties.put( STAMP_PREFIX + entry.getKey(), entry.getValue() );
+        }
+
+        stateFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream( stateFile );
+        try
+        {
+            properties.store( out, "Pax-Construct compilation classpath state" );
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+    }
+
+    /**
+     * Find packages provided by entries that were added, removed, or changed since the previous state
+     * 
+     * @param previous previous classpath state
+     * @return set of affected packages, using '/' separators
+     */
+    public Set getChangedPackages( ClassPathState previous )
+    {
+        Set changedPackages = new HashSet();
+
+        Set paths = new HashSet( m_entries.keySet() );
+        paths.addAll( previous.m_entries.keySet() );
+
+        for( Iterator i = paths.iterator(); i.hasNext(); )
+        {
+            Object path = i.next();
+
+            String state = (String) m_entries.get( path );
+            String previousState = (String) previous.m_entries.get( path );
+
+            if( null == state || !state.equals( previousState ) )
+            {
+                // packages that have gone are just as important as the ones that have arrived
+                addPackages( changedPackages, state );
+                addPackages( changedPackages, previousState );
+            }
+        }
+
+        return changedPackages;
+    }
+
+    /**
+     * @param previous previous classpath state
+     * @return true if any classpath entry has been added since the previous state
+     */
+    public boolean hasNewEntries( ClassPathState previous )
+    {
+        return !previous.m_entries.keySet().containsAll( m_entries.keySet() );
+    }
+
+    /**
+     * Find which packages are used by a compiled class, including those only mentioned in member signatures
+     * 
+     * @param classFile compiled class
+     * @return set of referenced packages, using '/' separators
+     * @throws IOException
+     */
+    public static Set getReferencedPackages( File classFile )
+        throws IOException
+    {
+        Set packages = new HashSet();
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( classFile ) ) );
+        try
+        {
+            if( in.readInt() != 0xCAFEBABE )
+            {
+                throw new IOException( "Not a class file " + classFile );
+            }
+
+            in.readUnsignedShort(); // minor version
+            in.readUnsignedShort(); // major version
+
+            int poolSize = in.readUnsignedShort();
+            for( int i = 1; i < poolSize; i++ )
+            {
+                int tag = in.readUnsignedByte();
+                switch( tag )
+                {
+                    case 1: // UTF8: class names, descriptors and signatures
+                        addReferencedPackages( packages, in.readUTF() );
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        in.skipBytes( 2 );
+                        break;
+                    case 15: // MethodHandle
+                        in.skipBytes( 3 );
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        in.skipBytes( 4 );
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        in.skipBytes( 8 );
+                        i++; // takes up two slots
+                        break;
+                    default:
+                        throw new IOException( "Unknown constant " + tag + " in class file " + classFile );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        return packages;
+    }
+
+    /**
+     * @param packages set of referenced packages
+     * @param text class name, descriptor, or signature
+     */
+    private static void addReferencedPackages( Set packages, String text )
+    {
+        // plain class names, such as org/example/Foo
+        if( text.indexOf( ';' ) < 0 )
+        {
+            int slash = text.lastIndexOf( '/' );
+            if( slash > 0 )
+            {
+                packages.add( text.substring( 0, slash ) );
+            }
+            return;
+        }
+
+        // descriptors and signatures, such as (Lorg/example/Foo;)V
+        for( int start = text.indexOf( 'L' ); start >= 0; start = text.indexOf( 'L', start + 1 ) )
+        {
+            int end = text.indexOf( ';', start );
+            if( end < 0 )
+            {
+                break;
+            }
+
+            String name = text.substring( start + 1, end );
+            int generic = name.indexOf( '<' );
+            if( generic >= 0 )
+            {
+                name = name.substring( 0, generic );
+            }
+
+            int slash = name.lastIndexOf( '/' );
+            if( slash > 0 )
+            {
+                packages.add( name.substring( 0, slash ) );
+            }
+        }
+    }
+
+    /**
+     * @param packages set of packages
+     * @param state "digest:package,package,..."
+     */
+    private static void addPackages( Set packages, String state )
+    {
+        if( null == state )
+        {
+            return;
+        }
+
+        String list = state.substring( state.indexOf( ':' ) + 1 );
+        if( list.length() > 0 )
+        {
+            packages.addAll( Arrays.asList( list.split( "," ) ) );
+        }
+    }
+
+    /**
+     * @param digest current digest
+     * @param dir directory to scan
+     * @param path relative path of the directory
+     * @param packages set of provided packages
+     * @throws IOException
+     */
+    private static void scanDirectory( MessageDigest digest, File dir, String path, Set packages )
+        throws IOException
+    {
+        // directory order depends on the filesystem
+        String[] names = dir.list();
+        if( null == names )
+        {
+            return;
+        }
+        Arrays.sort( names );
+
+        for( int i = 0; i < names.length; i++ )
+        {
+            File file = new File( dir, names[i] );
+            String filePath = path + names[i];
+
+            if( file.isDirectory() )
+            {
+                scanDirectory( digest, file, filePath + '/', packages );
+            }
+            else
+            {
+                DigestUtils.digestEntry( digest, filePath, file );
+
+                if( names[i].endsWith( ".class" ) && path.length() > 0 )
+                {
+                    packages.add( path.substring( 0, path.length() - 1 ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * @param archive jarfile
+     * @param packages set of provided packages
+     * @throws IOException
+     */
+    private static void scanArchive( File archive, Set packages )
+        throws IOException
+    {
+        JarFile jarFile = JarFilePool.acquire( archive );
+        try
+        {
+            for( Enumeration e = jarFile.entries(); e.hasMoreElements(); )
+            {
+                String name = ( (ZipEntry) e.nextElement() ).getName();
+
+                int slash = name.lastIndexOf( '/' );
+                if( name.endsWith( ".class" ) && slash > 0 )
+                {
+                    packages.add( name.substring( 0, slash ) );
+                }
+            }
+        }
+        finally
+        {
+            JarFilePool.release( jarFile );
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.ops4j.pax.construct.util;
+
+/*
+ * Copyright 2007 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Content digests used to decide whether generated output is still up to date
+ */
+public final class DigestUtils
+{
+    /**
+     * Hide constructor for utility class
+     */
+    private DigestUtils()
+    {
+        /*
+         * nothing to do
+         */
+    }
+
+    /**
+     * @return new MD5 digest
+     * @throws IOException
+     */
+    public static MessageDigest newDigest()
+        throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( "MD5" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "Unable to find MD5 digest" );
+        }
+    }
+
+    /**
+     * @param digest current digest
+     * @param file file to digest
+     * @throws IOException
+     */
+    public static void digestFile( MessageDigest digest, File file )
+        throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            byte[] buf = new byte[8192];
+            for( int n = in.read( buf ); n >= 0; n = in.read( buf ) )
+            {
+                digest.update( buf, 0, n );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Digest a file along with its path, so moving content between files also changes the digest
+     *
+     * @param digest current digest
+     * @param path relative path of the file
+     * @param file file to digest
+     * @throws IOException
+     */
+    public static void digestEntry( MessageDigest digest, String path, File file )
+        throws IOException
+    {
+        digestText( digest, path.replace( File.separatorChar, '/' ) );
+        digestFile( digest, file );
+    }
+
+    /**
+     * @param digest current digest
+     * @param text text to digest, on its own line so it can't merge with neighbouring content
+     */
+    public static void digestText( MessageDigest digest, String text )
+    {
+        digest.update( ( '\n' + text + '\n' ).getBytes() );
+    }
+
+    /**
+     * @param bytes binary data
+     * @return hex encoded data
+     */
+    public static String toHex( byte[] bytes )
+    {
+        StringBuffer buffer = new StringBuffer();
+        for( int i = 0; i < bytes.length; i++ )
+        {
+            buffer.append( Integer.toHexString( 0x100 | ( bytes[i] & 0xff ) ).substring( 1 ) );
+        }
+        return buffer.toString();
+    }
+}
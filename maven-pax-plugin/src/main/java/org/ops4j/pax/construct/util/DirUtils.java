@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
@@ -31,7 +30,6 @@ import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
@@ -446,15 +444,17 @@ public final class DirUtils
 
     /**
      * @param bundle jarfile
-     * @return Bundle-ClassPath
+     * @return Bundle-ClassPath, defaults to "." when the bundle doesn't declare one
      */
-    private static String extractBundleClassPath( File bundle )
+    public static String extractBundleClassPath( File bundle )
     {
         String bundleClassPath = null;
 
+        JarFile jarFile = null;
         try
         {
-            Manifest manifest = new JarFile( bundle ).getManifest();
+            jarFile = JarFilePool.acquire( bundle );
+            Manifest manifest = jarFile.getManifest();
             if( null != manifest )
             {
                 Attributes mainAttributes = manifest.getMainAttributes();
@@ -465,6 +465,10 @@ public final class DirUtils
         {
             System.err.println( "WARNING: unable to read jarfile " + bundle );
         }
+        finally
+        {
+            JarFilePool.release( jarFile );
+        }
 
         if( bundleClassPath != null )
         {
@@ -486,6 +490,18 @@ public final class DirUtils
         boolean accept( String entryName );
     }
 
+    /**
+     * Simple API to allow unpacking of selected content from bundles to different locations
+     */
+    public interface EntryMapper
+    {
+        /**
+         * @param entryName name of a file entry inside the bundle
+         * @return where it should be unpacked, null if it should be skipped
+         */
+        File map( String entryName );
+    }
+
     /**
      * @param bundle jarfile
      * @param here unpack directory
@@ -508,6 +524,27 @@ public final class DirUtils
         }
     }
 
+    /**
+     * Unpack selected entries straight to their final locations, without clearing any existing content
+     * 
+     * @param bundle jarfile
+     * @param mapper maps entries to their unpacked locations
+     * @return true if bundle was successfully unpacked
+     */
+    public static boolean unpackBundle( File bundle, EntryMapper mapper )
+    {
+        try
+        {
+            unpack( bundle, mapper );
+
+            return true;
+        }
+        catch( IOException e )
+        {
+            return false;
+        }
+    }
+
     /**
      * Simple Zip unpacking code, supports selected extraction of entries
      * 
@@ -516,10 +553,35 @@ public final class DirUtils
      * @param filter selection filter
      * @throws IOException
      */
-    private static void unpack( File bundle, File here, EntryFilter filter )
+    private static void unpack( File bundle, final File here, final EntryFilter filter )
+        throws IOException
+    {
+        unpack( bundle, new EntryMapper()
+        {
+            public File map( String entryName )
+            {
+                if( null == filter || filter.accept( entryName ) )
+                {
+                    // place unpacked file underneath target folder
+                    return FileUtils.resolveFile( here, entryName );
+                }
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Simple Zip unpacking code, supports selected extraction of entries to different locations
+     * 
+     * @param bundle zipfile
+     * @param mapper maps entries to their unpacked locations
+     * @throws IOException
+     */
+    private static void unpack( File bundle, EntryMapper mapper )
         throws IOException
     {
-        ZipFile zipFile = new ZipFile( bundle );
+        // bundles are often unpacked several times, so share the open handle
+        JarFile zipFile = JarFilePool.acquire( bundle );
 
         try
         {
@@ -529,10 +591,9 @@ public final class DirUtils
                 String name = entry.getName();
 
                 // don't bother with plain folders, as we always create them on-demand
-                if( !entry.isDirectory() && ( null == filter || filter.accept( name ) ) )
+                File file = entry.isDirectory() ? null : mapper.map( name );
+                if( null != file )
                 {
-                    // place unpacked file underneath target folder
-                    File file = FileUtils.resolveFile( here, name );
                     file.getParentFile().mkdirs();
 
                     InputStream in = zipFile.getInputStream( entry );
@@ -553,7 +614,7 @@ public final class DirUtils
         }
         finally
         {
-            zipFile.close();
+            JarFilePool.release( zipFile );
         }
     }
 
@@ -617,35 +678,98 @@ public final class DirUtils
     }
 
     /**
-     * Recursively delete (prune) all empty directories underneath the base directory
+     * Folder being walked while pruning empty folders
+     */
+    private static final class PruneFrame
+    {
+        /**
+         * The folder
+         */
+        private final File m_dir;
+
+        /**
+         * Files and folders inside the folder
+         */
+        private final File[] m_entries;
+
+        /**
+         * Index of the next entry to check
+         */
+        private int m_next;
+
+        /**
+         * True if the folder still has content, so shouldn't be deleted
+         */
+        private boolean m_keep;
+
+        /**
+         * @param dir the folder
+         */
+        PruneFrame( File dir )
+        {
+            File[] entries = dir.listFiles();
+
+            m_dir = dir;
+            m_entries = null == entries ? new File[0] : entries;
+            m_keep = null == entries;
+        }
+
+        /**
+         * @return the next sub-folder, null if there are no more
+         */
+        File nextSubFolder()
+        {
+            while( m_next < m_entries.length )
+            {
+                File entry = m_entries[m_next++];
+                if( entry.isDirectory() )
+                {
+                    return entry;
+                }
+
+                // plain files are never pruned
+                m_keep = true;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Delete (prune) all empty directories underneath the base directory, including the base directory itself if it
+     * ends up empty. Used to tidy up after archetype generation has discarded its temporary files.
      * 
      * @param baseDir base directory
      */
     public static void pruneEmptyFolders( File baseDir )
     {
-        List candidates = new ArrayList();
-        candidates.add( baseDir );
+        if( !baseDir.isDirectory() )
+        {
+            return;
+        }
 
-        List prunable = new ArrayList();
-        while( !candidates.isEmpty() )
+        // walk the tree using an explicit stack, so deep trees don't use up the call stack
+        List stack = new ArrayList();
+        stack.add( new PruneFrame( baseDir ) );
+
+        while( !stack.isEmpty() )
         {
-            File f = (File) candidates.remove( 0 );
-            if( f.isDirectory() )
+            PruneFrame frame = (PruneFrame) stack.get( stack.size() - 1 );
+
+            File subFolder = frame.nextSubFolder();
+            if( null != subFolder )
             {
-                File[] files = f.listFiles();
-                candidates.addAll( Arrays.asList( files ) );
-                prunable.add( f );
+                stack.add( new PruneFrame( subFolder ) );
+                continue;
             }
-        }
 
-        // delete must go in reverse
-        Collections.reverse( prunable );
+            // all sub-folders have been visited, so only try deleting this folder if it can now be empty
+            stack.remove( stack.size() - 1 );
+            boolean pruned = !frame.m_keep && frame.m_dir.delete();
 
-        for( Iterator i = prunable.iterator(); i.hasNext(); )
-        {
-            // only deletes empty directories
-            File directory = (File) i.next();
-            directory.delete();
+            if( !pruned && !stack.isEmpty() )
+            {
+                ( (PruneFrame) stack.get( stack.size() - 1 ) ).m_keep = true;
+            }
         }
     }
 }
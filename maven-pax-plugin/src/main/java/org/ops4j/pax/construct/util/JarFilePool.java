@@ -0,0 +1,233 @@
+package org.ops4j.pax.construct.util;
+
+/*
+ * Copyright 2007 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+/**
+ * Shared pool of open jarfile handles, so the same bundle isn't re-opened (and its central directory re-parsed) each
+ * time it's examined during a build. Handles are reference counted, and idle handles are closed in least-recently-used
+ * order once the pool is full. Always pair each call to {@link #acquire(File)} with a call to
+ * {@link #release(JarFile)}, and call {@link #closeAll()} when the goal using the pool has finished.
+ */
+public final class JarFilePool
+{
+    /**
+     * Maximum number of idle handles kept open
+     */
+    private static final int MAX_OPEN_HANDLES = 32;
+
+    /**
+     * Maps canonical jarfile paths to pooled handles, in access order
+     */
+    private static final Map POOL = new LinkedHashMap( 16, 0.75f, true );
+
+    /**
+     * Maps open jarfiles back to their pooled handles
+     */
+    private static final Map HANDLES = new IdentityHashMap();
+
+    /**
+     * Hide constructor for utility class
+     */
+    private JarFilePool()
+    {
+        /*
+         * nothing to do
+         */
+    }
+
+    /**
+     * Reference counted jarfile handle
+     */
+    private static final class Handle
+    {
+        /**
+         * Open jarfile
+         */
+        private final JarFile m_jarFile;
+
+        /**
+         * Timestamp of the jarfile when it was opened
+         */
+        private final long m_lastModified;
+
+        /**
+         * Size of the jarfile when it was opened
+         */
+        private final long m_length;
+
+        /**
+         * Number of callers currently using this handle
+         */
+        private int m_refCount;
+
+        /**
+         * True when this handle has been dropped from the pool, and should be closed once it's no longer used
+         */
+        private boolean m_evicted;
+
+        /**
+         * @param file jarfile
+         * @throws IOException
+         */
+        Handle( File file )
+            throws IOException
+        {
+            m_lastModified = file.lastModified();
+            m_length = file.length();
+            m_jarFile = new JarFile( file );
+        }
+
+        /**
+         * Best-effort check based on timestamp and size, a jarfile rewritten within the timestamp resolution of the
+         * filesystem with exactly the same size will not be noticed
+         * 
+         * @param file jarfile
+         * @return true if the jarfile has changed since this handle was opened
+         */
+        boolean isStale( File file )
+        {
+            return file.lastModified() != m_lastModified || file.length() != m_length;
+        }
+
+        /**
+         * Close the jarfile, ignoring any errors
+         */
+        void close()
+        {
+            try
+            {
+                m_jarFile.close();
+            }
+            catch( IOException e )
+            {
+                // ignore, nothing more we can do
+            }
+        }
+    }
+
+    /**
+     * Get an open handle to the given jarfile, re-using an existing handle if the jarfile hasn't changed
+     * 
+     * @param file jarfile
+     * @return open jarfile, must be released after use
+     * @throws IOException
+     */
+    public static synchronized JarFile acquire( File file )
+        throws IOException
+    {
+        String key = file.getCanonicalPath();
+
+        Handle handle = (Handle) POOL.get( key );
+        if( null != handle && handle.isStale( file ) )
+        {
+            // jarfile has been rebuilt, so drop the old handle
+            POOL.remove( key );
+            evict( handle );
+            handle = null;
+        }
+
+        if( null == handle )
+        {
+            handle = new Handle( file );
+
+            POOL.put( key, handle );
+            HANDLES.put( handle.m_jarFile, handle );
+
+            trimPool();
+        }
+
+        handle.m_refCount++;
+
+        return handle.m_jarFile;
+    }
+
+    /**
+     * Release a handle previously returned by {@link #acquire(File)}, the jarfile may be closed at any point afterwards
+     * 
+     * @param jarFile open jarfile, ignored if null
+     */
+    public static synchronized void release( JarFile jarFile )
+    {
+        Handle handle = (Handle) HANDLES.get( jarFile );
+        if( null == handle )
+        {
+            return;
+        }
+
+        handle.m_refCount--;
+        if( handle.m_evicted && handle.m_refCount <= 0 )
+        {
+            HANDLES.remove( jarFile );
+            handle.close();
+        }
+        else
+        {
+            trimPool();
+        }
+    }
+
+    /**
+     * Drop every handle from the pool, closing idle handles now and the others as soon as they're released. Goals call
+     * this when they finish, so jarfiles aren't left open (and locked on Windows) for the rest of the Maven process.
+     */
+    public static synchronized void closeAll()
+    {
+        for( Iterator i = POOL.values().iterator(); i.hasNext(); )
+        {
+            Handle handle = (Handle) i.next();
+            i.remove();
+            evict( handle );
+        }
+    }
+
+    /**
+     * Close idle handles, least-recently-used first, until the pool is back within bounds
+     */
+    private static void trimPool()
+    {
+        for( Iterator i = POOL.values().iterator(); POOL.size() > MAX_OPEN_HANDLES && i.hasNext(); )
+        {
+            Handle handle = (Handle) i.next();
+            if( handle.m_refCount <= 0 )
+            {
+                i.remove();
+                evict( handle );
+            }
+        }
+    }
+
+    /**
+     * @param handle handle that has been dropped from the pool
+     */
+    private static void evict( Handle handle )
+    {
+        handle.m_evicted = true;
+        if( handle.m_refCount <= 0 )
+        {
+            HANDLES.remove( handle.m_jarFile );
+            handle.close();
+        }
+    }
+}
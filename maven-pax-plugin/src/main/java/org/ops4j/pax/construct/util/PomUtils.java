@@ -92,6 +92,11 @@ public final class PomUtils
          */
         String getPackaging();
 
+        /**
+         * @return build directory as written in the POM, defaults to target if it isn't set
+         */
+        String getBuildDirectory();
+
         /**
          * @return names of modules contained in this project
          */
@@ -399,14 +404,20 @@ public final class PomUtils
             return false;
         }
 
+        JarFile jarFile = null;
         try
         {
-            return isBundleArtifact( new JarFile( artifact.getFile() ).getManifest() );
+            jarFile = JarFilePool.acquire( artifact.getFile() );
+            return isBundleArtifact( jarFile.getManifest() );
         }
         catch( IOException e )
         {
             return false;
         }
+        finally
+        {
+            JarFilePool.release( jarFile );
+        }
     }
 
     /**
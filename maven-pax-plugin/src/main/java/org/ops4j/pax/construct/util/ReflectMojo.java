@@ -19,15 +19,21 @@ package org.ops4j.pax.construct.util;
 import java.lang.reflect.Field;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.maven.plugin.AbstractMojo;
-import org.apache.maven.plugin.logging.Log;
 
 /**
  * Provide access to private inherited mojo fields
  */
 public final class ReflectMojo
 {
+    /**
+     * Maps each super-mojo class to its accessible fields, keyed by name (missing fields map to null)
+     */
+    private static final Map FIELD_CACHE = new HashMap();
+
     /**
      * Maven mojo instance
      */
@@ -49,126 +55,117 @@ public final class ReflectMojo
     }
 
     /**
+     * Find the named field, looking it up and making it accessible on first use
+     * 
      * @param name field name
-     * @return reflected field
-     * @throws NoSuchFieldException
+     * @return accessible field, null if there's no such field
      */
-    Field getMojoField( String name )
-        throws NoSuchFieldException
+    private Field getMojoField( final String name )
     {
-        return m_clazz.getDeclaredField( name );
-    }
+        synchronized( FIELD_CACHE )
+        {
+            Map fields = (Map) FIELD_CACHE.get( m_clazz );
+            if( null == fields )
+            {
+                fields = new HashMap();
+                FIELD_CACHE.put( m_clazz, fields );
+            }
+            else if( fields.containsKey( name ) )
+            {
+                return (Field) fields.get( name );
+            }
 
-    /**
-     * @return mojo instance
-     */
-    AbstractMojo getMojoInstance()
-    {
-        return m_mojo;
-    }
+            Field field = (Field) AccessController.doPrivileged( new PrivilegedAction()
+            {
+                public Object run()
+                {
+                    try
+                    {
+                        Field f = m_clazz.getDeclaredField( name );
+                        f.setAccessible( true );
+                        return f;
+                    }
+                    catch( NoSuchFieldException e )
+                    {
+                        return null;
+                    }
+                    catch( SecurityException e )
+                    {
+                        return null;
+                    }
+                }
+            } );
 
-    /**
-     * @return mojo logger
-     */
-    Log getMojoLogger()
-    {
-        return m_mojo.getLog();
+            fields.put( name, field );
+
+            return field;
+        }
     }
 
     /**
      * @param name name of the field member
      * @return true if the field exists, otherwise false
      */
-    public boolean hasField( final String name )
+    public boolean hasField( String name )
     {
-        return null != AccessController.doPrivileged( new PrivilegedAction()
-        {
-            public Object run()
-            {
-                try
-                {
-                    return getMojoField( name );
-                }
-                catch( NoSuchFieldException e )
-                {
-                    return null;
-                }
-                catch( SecurityException e )
-                {
-                    return null;
-                }
-            }
-        } );
+        return null != getMojoField( name );
     }
 
     /**
      * @param name name of the field member
      * @param value the new value for the field
      */
-    public void setField( final String name, final Object value )
+    public void setField( String name, Object value )
     {
-        AccessController.doPrivileged( new PrivilegedAction()
+        Field f = getMojoField( name );
+        if( null == f )
         {
-            public Object run()
-            {
-                try
-                {
-                    final Object safeValue;
-                    Field f = getMojoField( name );
-
-                    if( boolean.class.equals( f.getType() ) )
-                    {
-                        safeValue = Boolean.valueOf( value.toString() );
-                    }
-                    else
-                    {
-                        safeValue = value;
-                    }
+            m_mojo.getLog().error( "Unknown field " + name );
+            return;
+        }
 
-                    f.setAccessible( true );
-                    f.set( getMojoInstance(), safeValue );
-                }
-                catch( NoSuchFieldException e )
-                {
-                    getMojoLogger().error( "Unknown field " + name, e );
-                }
-                catch( IllegalAccessException e )
-                {
-                    getMojoLogger().error( "Cannot set field " + name, e );
-                }
+        final Object safeValue;
+        if( boolean.class.equals( f.getType() ) )
+        {
+            safeValue = Boolean.valueOf( value.toString() );
+        }
+        else
+        {
+            safeValue = value;
+        }
 
-                return null;
-            }
-        } );
+        try
+        {
+            f.set( m_mojo, safeValue );
+        }
+        catch( IllegalAccessException e )
+        {
+            m_mojo.getLog().error( "Cannot set field " + name, e );
+        }
     }
 
     /**
      * @param name name of the field member
      * @return the current value in the field
      */
-    public Object getField( final String name )
+    public Object getField( String name )
     {
-        return AccessController.doPrivileged( new PrivilegedAction()
+        Field f = getMojoField( name );
+        if( null == f )
         {
-            public Object run()
-            {
-                try
-                {
-                    Field f = getMojoField( name );
-                    f.setAccessible( true );
-                    return f.get( getMojoInstance() );
-                }
-                catch( NoSuchFieldException e )
-                {
-                    getMojoLogger().error( "Unknown field " + name, e );
-                }
-                catch( IllegalAccessException e )
-                {
-                    getMojoLogger().error( "Cannot get field " + name, e );
-                }
+            m_mojo.getLog().error( "Unknown field " + name );
+            return null;
+        }
 
-                return null;
-            }
-        } );
+        try
+        {
+            return f.get( m_mojo );
+        }
+        catch( IllegalAccessException e )
+        {
+            m_mojo.getLog().error( "Cannot get field " + name, e );
+        }
+
+        return null;
     }
 }
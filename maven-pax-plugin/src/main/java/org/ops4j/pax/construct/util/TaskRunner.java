@@ -0,0 +1,235 @@
+package org.ops4j.pax.construct.util;
+
+/*
+ * Copyright 2007 Stuart McCulloch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Runs a list of independent tasks on a fixed number of worker threads. The first task to fail stops the workers
+ * picking up any more tasks, and its exception is re-thrown once all the workers have finished. With one thread (or
+ * one task) everything runs on the calling thread.
+ */
+public final class TaskRunner
+{
+    /**
+     * Unit of work that can be handed to a worker thread
+     */
+    public interface Task
+    {
+        /**
+         * Perform the task
+         *
+         * @throws Exception
+         */
+        void run()
+            throws Exception;
+    }
+
+    /**
+     * Name used for worker threads and error messages
+     */
+    private final String m_name;
+
+    /**
+     * Maximum number of worker threads
+     */
+    private final int m_threads;
+
+    /**
+     * Tasks waiting to be picked up by a worker
+     */
+    private final List m_tasks;
+
+    /**
+     * First failure, if any
+     */
+    private Throwable m_failure;
+
+    /**
+     * Set when the workers should stop picking up tasks
+     */
+    private boolean m_stopped;
+
+    /**
+     * @param name name used for worker threads and error messages
+     * @param threads maximum number of worker threads
+     */
+    public TaskRunner( String name, int threads )
+    {
+        m_name = name;
+        m_threads = threads;
+        m_tasks = new ArrayList();
+    }
+
+    /**
+     * @param task task to run
+     */
+    public void add( Task task )
+    {
+        m_tasks.add( task );
+    }
+
+    /**
+     * @return number of tasks waiting to run
+     */
+    public int size()
+    {
+        return m_tasks.size();
+    }
+
+    /**
+     * @return number of worker threads that will be used to run the current tasks
+     */
+    public int getWorkerCount()
+    {
+        return Math.max( 1, Math.min( m_threads, m_tasks.size() ) );
+    }
+
+    /**
+     * Run all the tasks and wait for them to finish
+     *
+     * @throws MojoExecutionException if any task fails, or the calling thread is interrupted
+     */
+    public void run()
+        throws MojoExecutionException
+    {
+        Runnable worker = new Runnable()
+        {
+            public void run()
+            {
+                Task task;
+                while( null != ( task = nextTask() ) )
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch( Throwable e )
+                    {
+                        stop( e );
+                    }
+                }
+            }
+        };
+
+        int workerCount = getWorkerCount();
+        if( workerCount > 1 )
+        {
+            Thread[] workers = new Thread[workerCount];
+            for( int i = 0; i < workers.length; i++ )
+            {
+                workers[i] = new Thread( worker, "pax-" + m_name + '-' + i );
+                workers[i].start();
+            }
+
+            if( !joinAll( workers ) )
+            {
+                throw new MojoExecutionException( "Interrupted while running " + m_name + " tasks" );
+            }
+        }
+        else
+        {
+            worker.run();
+        }
+
+        rethrowFailure();
+    }
+
+    /**
+     * @return the next task to run, null if there are no more tasks or the runner has stopped
+     */
+    synchronized Task nextTask()
+    {
+        if( m_stopped || m_tasks.isEmpty() )
+        {
+            return null;
+        }
+        return (Task) m_tasks.remove( 0 );
+    }
+
+    /**
+     * Stop the workers picking up any more tasks
+     *
+     * @param failure reason for stopping, null if the runner was interrupted
+     */
+    synchronized void stop( Throwable failure )
+    {
+        if( null == m_failure )
+        {
+            m_failure = failure;
+        }
+        m_stopped = true;
+    }
+
+    /**
+     * Wait for all the workers to finish, even if the calling thread is interrupted, so they don't outlive the runner
+     *
+     * @param workers worker threads
+     * @return false if the calling thread was interrupted, otherwise true
+     */
+    private boolean joinAll( Thread[] workers )
+    {
+        boolean interrupted = false;
+        for( int i = 0; i < workers.length; i++ )
+        {
+            while( workers[i].isAlive() )
+            {
+                try
+                {
+                    workers[i].join();
+                }
+                catch( InterruptedException e )
+                {
+                    // let the current tasks finish, but don't start any more
+                    stop( null );
+                    interrupted = true;
+                }
+            }
+        }
+
+        if( interrupted )
+        {
+            // restore the flag for the caller
+            Thread.currentThread().interrupt();
+        }
+
+        return !interrupted;
+    }
+
+    /**
+     * @throws MojoExecutionException if any task failed
+     */
+    private synchronized void rethrowFailure()
+        throws MojoExecutionException
+    {
+        if( m_failure instanceof MojoExecutionException )
+        {
+            throw (MojoExecutionException) m_failure;
+        }
+        else if( m_failure instanceof Error )
+        {
+            throw (Error) m_failure;
+        }
+        else if( null != m_failure )
+        {
+            throw new MojoExecutionException( "Problem running " + m_name + " task", m_failure );
+        }
+    }
+}
@@ -199,6 +199,23 @@ public class XppPom
         return packaging.getValue();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public String getBuildDirectory()
+    {
+        Xpp3Dom build = m_pom.getChild( "build" );
+        if( null != build )
+        {
+            Xpp3Dom directory = build.getChild( "directory" );
+            if( null != directory && null != directory.getValue() )
+            {
+                return directory.getValue().trim();
+            }
+        }
+        return "target";
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -2,4 +2,7 @@
 SETLOCAL
 set _SCRIPTDIR_=%~dp0
 
+@REM pick the Maven command the same way as the pax-* scripts on the PATH
+call pax-maven.bat
+
 if "%1"=="-noinstall" goto noinstall
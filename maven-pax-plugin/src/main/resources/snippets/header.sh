@@ -1,5 +1,8 @@
 #!/bin/sh
 _SCRIPTDIR_=`dirname "$0"`
 
+# pick the Maven command the same way as the pax-* scripts on the PATH
+. pax-maven.sh
+
 if [ "$1" != "-noinstall" ]
 then
@@ -0,0 +1,27 @@
+@REM --------------------------------------------------------------------------
+@REM Copyright 2007-2008 Stuart McCulloch.
+@REM
+@REM Licensed under the Apache License, Version 2.0 (the "License");
+@REM you may not use this file except in compliance with the License.
+@REM You may obtain a copy of the License at
+@REM
+@REM     http://www.apache.org/licenses/LICENSE-2.0
+@REM
+@REM Unless required by applicable law or agreed to in writing, software
+@REM distributed under the License is distributed on an "AS IS" BASIS,
+@REM WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+@REM implied.
+@REM
+@REM See the License for the specific language governing permissions and
+@REM limitations under the License.
+@REM --------------------------------------------------------------------------
+
+@REM called by the other scripts: use resident Maven daemon client (such as mvnd)
+@REM when PAX_MAVEN names one that can be found, otherwise fall back to plain mvn
+set _FOUND_=
+if not ""=="%PAX_MAVEN%" for %%E in ("" %PATHEXT%) do for %%F in ("%PAX_MAVEN%%%~E") do (
+  if exist "%%~F" set _FOUND_=true
+  if not ""=="%%~$PATH:F" set _FOUND_=true
+)
+if ""=="%_FOUND_%" set PAX_MAVEN=mvn
+set _FOUND_=
@@ -0,0 +1,24 @@
+# -----------------------------------------------------------------------------
+# Copyright 2007-2008 Stuart McCulloch.
+# 
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+# 
+#      http://www.apache.org/licenses/LICENSE-2.0
+# 
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+# implied.
+# 
+# See the License for the specific language governing permissions and
+# limitations under the License.
+# -----------------------------------------------------------------------------
+
+# sourced by the other scripts: use resident Maven daemon client (such as mvnd)
+# when PAX_MAVEN names one that can be found, otherwise fall back to plain mvn
+if [ -z "${PAX_MAVEN}" ] || ! command -v "${PAX_MAVEN}" >/dev/null 2>&1
+then
+  PAX_MAVEN=mvn
+fi
@@ -22,21 +22,76 @@ set _SCRIPTDIR_=%~dp0
 
 if ""=="%PAX_CONSTRUCT_VERSION%" set PAX_CONSTRUCT_VERSION=${project.version}
 
+call "%_SCRIPTDIR_%\pax-maven.bat"
+
+@REM find the local repository the same way Maven does: -Dmaven.repo.local, then user and global settings
+set _REPO_=
+set _NEXT_=
+for %%O in (%MAVEN_OPTS%) do (
+  if defined _NEXT_ set _REPO_=%%~O
+  set _NEXT_=
+  if "%%~O"=="-Dmaven.repo.local" set _NEXT_=true
+)
+
+set _SETTINGS_=
+call :settings "%USERPROFILE%\.m2\settings.xml"
+if not ""=="%M2_HOME%" call :settings "%M2_HOME%\conf\settings.xml"
+
+if ""=="%_REPO_%" set _REPO_=%M2_REPO%
+if ""=="%_REPO_%" set _REPO_=%USERPROFILE%\.m2\repository
+
+set _JAR_=%_REPO_%\org\ops4j\maven-pax-plugin\%PAX_CONSTRUCT_VERSION%\maven-pax-plugin-%PAX_CONSTRUCT_VERSION%.jar
+set _STAMP_=%USERPROFILE%\.m2\pax-validate.stamp
+
+@REM quick check: stamp records the last validated version, the size and timestamp of its plugin jar, the repository
+@REM and the settings used
+set _CHECKSUM_=
+if exist "%_JAR_%" for %%F in ("%_JAR_%") do set _CHECKSUM_=%PAX_CONSTRUCT_VERSION% %%~zF %%~tF %_REPO_%%_SETTINGS_%
+set _VALIDATED_=
+if exist "%_STAMP_%" set /p _VALIDATED_=<"%_STAMP_%"
+if not ""=="%_CHECKSUM_%" if "%_CHECKSUM_%"=="%_VALIDATED_%" goto done
+
 set _FIND_="find.exe"
 if exist "%SystemRoot%\system32\find.exe" set _FIND_="%SystemRoot%\system32\find.exe"
 if exist "%SystemRoot%\command\find.exe" set _FIND_="%SystemRoot%\command\find.exe"
 
-call mvn -o -npu -N -f "%_SCRIPTDIR_%\pax-bootstrap-pom.xml" -DPAX_CONSTRUCT_VERSION=%PAX_CONSTRUCT_VERSION% validate | %_FIND_% "ERROR" >NUL
+call %PAX_MAVEN% -o -npu -N -f "%_SCRIPTDIR_%\pax-bootstrap-pom.xml" -DPAX_CONSTRUCT_VERSION=%PAX_CONSTRUCT_VERSION% validate | %_FIND_% "ERROR" >NUL
 goto answer%ERRORLEVEL%
 
 :answer1
   :: already installed and validated
-  goto done
+  goto stamp
 
 :answer0
   echo BOOTSTRAP PAX-CONSTRUCT PLUGIN
   echo ==============================
   @echo on
-  mvn -up -N -f "%_SCRIPTDIR_%\pax-bootstrap-pom.xml" -DPAX_CONSTRUCT_VERSION=%PAX_CONSTRUCT_VERSION% validate
+  call %PAX_MAVEN% -up -N -f "%_SCRIPTDIR_%\pax-bootstrap-pom.xml" -DPAX_CONSTRUCT_VERSION=%PAX_CONSTRUCT_VERSION% validate
+  @echo off
+  if errorlevel 1 goto done
+
+:stamp
+@REM refresh stale (or missing) stamp
+set _CHECKSUM_=
+if exist "%_JAR_%" for %%F in ("%_JAR_%") do set _CHECKSUM_=%PAX_CONSTRUCT_VERSION% %%~zF %%~tF %_REPO_%%_SETTINGS_%
+@REM redirect first, as the repository path may contain parentheses
+if not ""=="%_CHECKSUM_%" if exist "%USERPROFILE%\.m2" >"%_STAMP_%" echo %_CHECKSUM_%
 
 :done
+goto :eof
+
+:settings
+@REM remember the size and timestamp of the settings file, so changing the settings invalidates the stamp
+if not exist "%~1" goto :eof
+for %%F in ("%~1") do set _SETTINGS_=%_SETTINGS_% %%~zF %%~tF
+if defined _REPO_ goto :eof
+@REM skip commented-out entries, such as the example path in the default settings file
+for /f "tokens=1-3 delims=<>" %%A in ('findstr /c:"<localRepository>" "%~1" ^| findstr /v /c:"<!--"') do (
+  if not defined _REPO_ if "%%A"=="localRepository" set _REPO_=%%B
+  if not defined _REPO_ if "%%B"=="localRepository" set _REPO_=%%C
+)
+if "%_REPO_%"=="/path/to/local/repo" set _REPO_=
+if not defined _REPO_ goto :eof
+call set _REPO_=%%_REPO_:{user.home}=%USERPROFILE%%%
+if "%_REPO_:~0,1%"=="$" set _REPO_=%_REPO_:~1%
+goto :eof